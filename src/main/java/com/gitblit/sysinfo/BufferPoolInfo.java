@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Usage of a buffer pool of the jvm, outside of the heap: "direct" (ByteBuffer.allocateDirect,
+ * Netty), "mapped" (FileChannel.map) and "mapped - 'non-volatile memory'" on java 14+.
+ * <p>
+ * When built by a {@link BufferPoolSampler}, it also has the growth since the previous sample and
+ * whether the pool grew at each of the last samples. Unknown values are -1, except the growth rate
+ * which can be -1 and is {@link #UNKNOWN_RATE} when unknown.
+ */
+public class BufferPoolInfo implements Serializable, Comparable<BufferPoolInfo> {
+    /**
+     * Value of {@link #getUsedBytesPerSecond()} when unknown.
+     */
+    public static final long UNKNOWN_RATE = Long.MIN_VALUE;
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final long count;
+    private final long memoryUsed;
+    private final long totalCapacity;
+    private final long intervalMillis;
+    private final long usedBytesPerSecond;
+    private final int growingSampleCount;
+    private final boolean leakSuspected;
+
+    BufferPoolInfo(BufferPoolMXBean bufferPool) {
+        this(bufferPool.getName(), bufferPool.getCount(), bufferPool.getMemoryUsed(), bufferPool.getTotalCapacity(),
+                -1, UNKNOWN_RATE, 0, false);
+    }
+
+    BufferPoolInfo(String name, long count, long memoryUsed, long totalCapacity, long intervalMillis,
+                   long usedBytesPerSecond, int growingSampleCount, boolean leakSuspected) {
+        super();
+        this.name = name;
+        this.count = count;
+        this.memoryUsed = memoryUsed;
+        this.totalCapacity = totalCapacity;
+        this.intervalMillis = intervalMillis;
+        this.usedBytesPerSecond = usedBytesPerSecond;
+        this.growingSampleCount = growingSampleCount;
+        this.leakSuspected = leakSuspected;
+    }
+
+    public static List<BufferPoolInfo> buildBufferPoolInfoList() {
+        List<BufferPoolInfo> bufferPoolInfos = new ArrayList<>();
+        for (BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            bufferPoolInfos.add(new BufferPoolInfo(bufferPool));
+        }
+        return Collections.unmodifiableList(bufferPoolInfos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of buffers, or -1 if unknown
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the memory used by the buffers, which may differ from their capacity (page alignment),
+     * or -1 if unknown
+     */
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * @return the sum of the capacities of the buffers, or -1 if unknown
+     */
+    public long getTotalCapacity() {
+        return totalCapacity;
+    }
+
+    /**
+     * @return the interval since the previous sample, or -1 if unknown
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return the change of the used memory per second since the previous sample, negative when it
+     * shrinks, or {@link #UNKNOWN_RATE} if unknown
+     */
+    public long getUsedBytesPerSecond() {
+        return usedBytesPerSecond;
+    }
+
+    /**
+     * @return the number of consecutive samples, up to this one, where the used memory grew
+     */
+    public int getGrowingSampleCount() {
+        return growingSampleCount;
+    }
+
+    /**
+     * @return true if the used memory grew at each of the last samples of the sampler
+     */
+    public boolean isLeakSuspected() {
+        return leakSuspected;
+    }
+
+    /**
+     * Orders by decreasing used memory.
+     */
+    @Override
+    public int compareTo(BufferPoolInfo o) {
+        return Long.compare(o.memoryUsed, memoryUsed);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[name=" + name + ", count=" + count + ", memoryUsed=" + memoryUsed
+                + ", totalCapacity=" + totalCapacity + ", usedBytesPerSecond="
+                + (usedBytesPerSecond == UNKNOWN_RATE ? "unknown" : String.valueOf(usedBytesPerSecond))
+                + ", leakSuspected=" + leakSuspected + ']';
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows the buffer pools from one sample to the next: rate of change of the used memory, and a
+ * leak heuristic flagging a pool whose used memory grew at each of the last N samples. A pool
+ * holding pooled or cached buffers grows in steps and then stays flat, a leak keeps growing.
+ * <p>
+ * The interval between samples should be long enough compared with the lifetime of the buffers,
+ * minutes rather than seconds, so that a busy but healthy pool is not flagged.
+ */
+public class BufferPoolSampler {
+    private static final int DEFAULT_LEAK_SAMPLES = 10;
+
+    private final int leakSamples;
+    // by pool name: used memory of the previous sample, consecutive growing samples
+    private final Map<String, long[]> previousByPool = new HashMap<>();
+    private long previousNanos = -1;
+    private List<BufferPoolInfo> lastSample = Collections.emptyList();
+
+    public BufferPoolSampler() {
+        this(DEFAULT_LEAK_SAMPLES);
+    }
+
+    /**
+     * @param leakSamples the number of consecutive samples with growth after which a leak is suspected
+     */
+    public BufferPoolSampler(int leakSamples) {
+        super();
+        if (leakSamples < 2) {
+            throw new IllegalArgumentException("leakSamples must be at least 2");
+        }
+        this.leakSamples = leakSamples;
+    }
+
+    /**
+     * Reads the buffer pools and compares them with the previous call.
+     *
+     * @return the buffer pools by decreasing used memory
+     */
+    public synchronized List<BufferPoolInfo> sample() {
+        long now = System.nanoTime();
+        long intervalMillis = previousNanos < 0 ? -1 : (now - previousNanos) / 1000000;
+        List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+        List<BufferPoolInfo> bufferPoolInfos = new ArrayList<>(bufferPools.size());
+        for (BufferPoolMXBean bufferPool : bufferPools) {
+            String name = bufferPool.getName();
+            long memoryUsed = bufferPool.getMemoryUsed();
+            long[] previous = previousByPool.get(name);
+            // -1 B/s is a real rate
+            long usedBytesPerSecond = BufferPoolInfo.UNKNOWN_RATE;
+            int growingSampleCount = 0;
+            if (previous == null) {
+                previous = new long[2];
+                previousByPool.put(name, previous);
+            } else if (memoryUsed >= 0 && previous[0] >= 0) {
+                if (intervalMillis > 0) {
+                    usedBytesPerSecond = (memoryUsed - previous[0]) * 1000 / intervalMillis;
+                }
+                growingSampleCount = memoryUsed > previous[0] ? (int) previous[1] + 1 : 0;
+            }
+            previous[0] = memoryUsed;
+            previous[1] = growingSampleCount;
+            // N samples growing means N - 1 growths between them
+            boolean leakSuspected = growingSampleCount >= leakSamples - 1;
+            bufferPoolInfos.add(new BufferPoolInfo(name, bufferPool.getCount(), memoryUsed,
+                    bufferPool.getTotalCapacity(), intervalMillis, usedBytesPerSecond, growingSampleCount,
+                    leakSuspected));
+        }
+        Collections.sort(bufferPoolInfos);
+        previousNanos = now;
+        lastSample = Collections.unmodifiableList(bufferPoolInfos);
+        return lastSample;
+    }
+
+    /**
+     * @return the result of the last call to {@link #sample()}
+     */
+    public synchronized List<BufferPoolInfo> getLastSample() {
+        return lastSample;
+    }
+
+    /**
+     * @return the pools of the last sample suspected of leaking
+     */
+    public synchronized List<BufferPoolInfo> getLeakSuspects() {
+        List<BufferPoolInfo> suspects = new ArrayList<>();
+        for (BufferPoolInfo bufferPoolInfo : lastSample) {
+            if (bufferPoolInfo.isLeakSuspected()) {
+                suspects.add(bufferPoolInfo);
+            }
+        }
+        return suspects;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[leakSamples=" + leakSamples + ", pools=" + previousByPool.size() + ']';
+    }
+}
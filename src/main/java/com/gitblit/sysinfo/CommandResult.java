@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+/**
+ * Result of a collection bounded by a deadline: the value, and whether it is complete or only
+ * what was read before the deadline.
+ */
+public final class CommandResult<T> {
+    private final T value;
+    private final boolean complete;
+
+    private CommandResult(T value, boolean complete) {
+        super();
+        this.value = value;
+        this.complete = complete;
+    }
+
+    static <T> CommandResult<T> complete(T value) {
+        return new CommandResult<>(value, true);
+    }
+
+    static <T> CommandResult<T> partial(T value) {
+        return new CommandResult<>(value, false);
+    }
+
+    /**
+     * @return the collected value, partial if the deadline was reached
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return false if the deadline was reached before the end of the collection
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[complete=" + complete + ", value=" + value + ']';
+    }
+}
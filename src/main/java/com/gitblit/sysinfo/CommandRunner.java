@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs external commands and other blocking collections off the caller thread, with a deadline.
+ * <p>
+ * When the deadline is reached, or when the returned future is cancelled, the child process is
+ * killed and the future completes with what was collected so far. The caller is released at the
+ * deadline even if the reading thread stays blocked.
+ * <p>
+ * A blocked reading thread is not interrupted (a read of /proc cannot be), so the threads are bounded:
+ * when {@value #MAX_THREADS} collections are still in flight, a new one fails at once with a
+ * {@link RejectedExecutionException} instead of starting one more thread.
+ */
+final class CommandRunner {
+    private static final int MAX_THREADS = 4;
+    // what ProcessBuilder.Redirect.DISCARD of java 9+ writes to
+    private static final File NULL_FILE = new File(
+            System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("windows") ? "NUL" : "/dev/null");
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, MAX_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), daemonThreadFactory("sysinfo-command"));
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1,
+            daemonThreadFactory("sysinfo-command-timeout"));
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private CommandRunner() {
+        super();
+    }
+
+    /**
+     * Consumes the output of a command or performs a collection, and gives the result collected so far.
+     * {@link #getResult()} may be called from another thread while {@link #collect(InputStream)} runs.
+     */
+    interface Collector<T> {
+        /**
+         * @param in output of the command, or null for a collection without command
+         */
+        void collect(InputStream in) throws IOException;
+
+        T getResult();
+    }
+
+    static ThreadFactory daemonThreadFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + '-' + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Starts the command and feeds its standard output to the collector.
+     */
+    static <T> CompletableFuture<CommandResult<T>> execute(String[] command, Collector<T> collector,
+                                                            long timeout, TimeUnit unit) {
+        final Process process;
+        try {
+            // the error output is never read, it must not fill its pipe and block the command
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.to(NULL_FILE)).start();
+            process.getOutputStream().close();
+        } catch (IOException e) {
+            CompletableFuture<CommandResult<T>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return run(process, collector, timeout, unit);
+    }
+
+    /**
+     * Runs a collection which does not fork, such as reading /proc.
+     */
+    static <T> CompletableFuture<CommandResult<T>> execute(Collector<T> collector, long timeout, TimeUnit unit) {
+        return run(null, collector, timeout, unit);
+    }
+
+    private static <T> CompletableFuture<CommandResult<T>> run(final Process process, final Collector<T> collector,
+                                                              long timeout, TimeUnit unit) {
+        final CompletableFuture<CommandResult<T>> future = new CompletableFuture<>();
+        final ScheduledFuture<?> deadline = TIMER.schedule(() -> {
+            // the partial result is taken before the kill, it only contains fully read rows
+            if (future.complete(CommandResult.partial(collector.getResult()))) {
+                destroy(process);
+            }
+        }, timeout, unit);
+        future.whenComplete((result, throwable) -> {
+            deadline.cancel(false);
+            if (throwable != null) {
+                // cancelled by the caller
+                destroy(process);
+            }
+        });
+        try {
+            EXECUTOR.execute(() -> {
+                try {
+                    collector.collect(process == null ? null : process.getInputStream());
+                    future.complete(CommandResult.complete(collector.getResult()));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    close(process);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new RejectedExecutionException(
+                    MAX_THREADS + " collections are still in flight", e));
+            close(process);
+        }
+        return future;
+    }
+
+    private static void destroy(Process process) {
+        if (process != null) {
+            process.destroyForcibly();
+        }
+    }
+
+    private static void close(Process process) {
+        if (process == null) {
+            return;
+        }
+        // avoid http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6462165
+        try {
+            process.getInputStream().close();
+            process.getErrorStream().close();
+        } catch (IOException e) {
+            // the process is destroyed anyway
+        }
+        process.destroy();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The threads of a deadlock, with their stacks and locks, and the cycles of lock owners.
+ */
+public class Deadlock implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] threadIds;
+    private final List<ThreadInfo> threads;
+    private final List<List<ThreadInfo>> cycles;
+    private final long detectionTimeMillis;
+
+    Deadlock(long[] threadIds, List<ThreadInfo> threads, long detectionTimeMillis) {
+        super();
+        this.threadIds = threadIds.clone();
+        Arrays.sort(this.threadIds);
+        this.threads = threads;
+        this.cycles = buildCycles(threads);
+        this.detectionTimeMillis = detectionTimeMillis;
+    }
+
+    /**
+     * Follows the lock owner of each thread until a thread is seen twice.
+     */
+    private static List<List<ThreadInfo>> buildCycles(List<ThreadInfo> threads) {
+        Map<Long, ThreadInfo> threadsById = new HashMap<>();
+        for (ThreadInfo thread : threads) {
+            threadsById.put(thread.getId(), thread);
+        }
+        List<List<ThreadInfo>> cycles = new ArrayList<>();
+        Set<Long> visited = new HashSet<>();
+        for (ThreadInfo thread : threads) {
+            List<ThreadInfo> chain = new ArrayList<>();
+            Set<Long> inChain = new HashSet<>();
+            ThreadInfo current = thread;
+            while (current != null && !visited.contains(current.getId())) {
+                visited.add(current.getId());
+                inChain.add(current.getId());
+                chain.add(current);
+                current = threadsById.get(current.getLockOwnerId());
+            }
+            if (current != null && inChain.contains(current.getId())) {
+                // the threads before the first owner seen twice only wait for the cycle
+                int start = chain.indexOf(current);
+                cycles.add(Collections.unmodifiableList(new ArrayList<>(chain.subList(start, chain.size()))));
+            }
+        }
+        return Collections.unmodifiableList(cycles);
+    }
+
+    /**
+     * @return the sorted ids of the deadlocked threads, identifying the deadlock
+     */
+    public long[] getThreadIds() {
+        return threadIds.clone();
+    }
+
+    /**
+     * @return the deadlocked threads, including the threads which only wait for a lock held in a cycle
+     */
+    public List<ThreadInfo> getThreads() {
+        return Collections.unmodifiableList(threads);
+    }
+
+    /**
+     * @return the cycles of threads, each thread waiting for a lock held by the next one, the last by the first
+     */
+    public List<List<ThreadInfo>> getCycles() {
+        return cycles;
+    }
+
+    public long getDetectionTimeMillis() {
+        return detectionTimeMillis;
+    }
+
+    /**
+     * @return the lock owner chains, one line per thread: {@code "name" waits for lock held by "owner"}
+     */
+    public String getDescription() {
+        StringBuilder sb = new StringBuilder();
+        for (List<ThreadInfo> cycle : cycles) {
+            for (int i = 0; i < cycle.size(); i++) {
+                ThreadInfo thread = cycle.get(i);
+                ThreadInfo owner = cycle.get((i + 1) % cycle.size());
+                sb.append('"').append(thread.getName()).append("\" waits for ").append(thread.getLockName())
+                        .append(" held by \"").append(owner.getName()).append("\"\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[threadIds=" + Arrays.toString(threadIds) + ", cycles=" + cycles.size()
+                + ']';
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects deadlocks on a schedule without capturing all the threads.
+ * <p>
+ * Each check only calls {@code findDeadlockedThreads}. The stacks and the locks are captured
+ * for the deadlocked threads only, when a deadlock is found, and the listeners are notified
+ * once per deadlock: a deadlock still present at the next check is not reported again.
+ * <p>
+ * A failing listener does not prevent the others from being notified, and a failing check does not
+ * cancel the schedule: the failure is kept in {@link #getLastFailure()}.
+ */
+public class DeadlockWatchdog {
+    private static final int DEFAULT_MAX_DEPTH = 64;
+
+    /**
+     * Receives the deadlocks, on the thread of the watchdog.
+     */
+    public interface Listener {
+        void deadlockDetected(Deadlock deadlock);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadCaptureOptions captureOptions;
+    private Set<String> reported = new HashSet<>();
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+    private volatile RuntimeException lastFailure;
+
+    public DeadlockWatchdog() {
+        this(DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param maxDepth the maximum number of frames captured for each deadlocked thread
+     */
+    public DeadlockWatchdog(int maxDepth) {
+        super();
+        this.captureOptions = new ThreadCaptureOptions().maxDepth(maxDepth).lockedMonitors(true)
+                .lockedSynchronizers(true).cpuTime(false);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts checking on a daemon thread at a fixed rate.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (future != null) {
+            throw new IllegalStateException("watchdog already started");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    CommandRunner.daemonThreadFactory("sysinfo-deadlock-watchdog"));
+        }
+        future = executor.scheduleWithFixedDelay(this::scheduledCheck, 0, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the failure of the most recent scheduled check which failed, or null if none failed
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    private void scheduledCheck() {
+        // an exception escaping the task would silently cancel scheduleWithFixedDelay
+        try {
+            check();
+        } catch (RuntimeException e) {
+            lastFailure = e;
+        }
+    }
+
+    /**
+     * Checks once for deadlocks and notifies the listeners of the new ones.
+     * If listeners fail, all the others are still notified and the first failure is then thrown,
+     * with the next ones suppressed; the deadlocks are reported anyway.
+     *
+     * @return the new deadlocks, empty if none
+     */
+    public List<Deadlock> check() {
+        long[] deadlockedThreads = ThreadInfo.getDeadlockedThreads(ThreadMXBeans.THREAD_BEAN);
+        List<Deadlock> deadlocks = new ArrayList<>();
+        synchronized (this) {
+            if (deadlockedThreads == null) {
+                reported.clear();
+                return deadlocks;
+            }
+            List<ThreadInfo> threads = ThreadInfo.buildThreadInfoList(deadlockedThreads, captureOptions,
+                    deadlockedThreads);
+            Set<String> current = new HashSet<>();
+            // findDeadlockedThreads may return several independent deadlocks at once
+            for (List<ThreadInfo> component : splitByLockOwner(threads)) {
+                long[] ids = new long[component.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = component.get(i).getId();
+                }
+                Deadlock deadlock = new Deadlock(ids, component, System.currentTimeMillis());
+                String key = Arrays.toString(deadlock.getThreadIds());
+                current.add(key);
+                if (!reported.contains(key)) {
+                    deadlocks.add(deadlock);
+                }
+            }
+            reported = current;
+        }
+        RuntimeException failure = null;
+        for (Deadlock deadlock : deadlocks) {
+            for (Listener listener : listeners) {
+                try {
+                    listener.deadlockDetected(deadlock);
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return deadlocks;
+    }
+
+    /**
+     * Groups the threads linked by lock ownership, with a union-find over their indexes.
+     */
+    private static List<List<ThreadInfo>> splitByLockOwner(List<ThreadInfo> threads) {
+        int count = threads.size();
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = threads.get(i).getId();
+        }
+        long[] sortedIds = ids.clone();
+        Arrays.sort(sortedIds);
+        int[] indexBySortedId = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexBySortedId[Arrays.binarySearch(sortedIds, ids[i])] = i;
+        }
+        int[] parents = new int[count];
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int owner = Arrays.binarySearch(sortedIds, threads.get(i).getLockOwnerId());
+            if (owner >= 0) {
+                parents[find(parents, i)] = find(parents, indexBySortedId[owner]);
+            }
+        }
+        List<List<ThreadInfo>> components = new ArrayList<>();
+        int[] componentByRoot = new int[count];
+        Arrays.fill(componentByRoot, -1);
+        for (int i = 0; i < count; i++) {
+            int root = find(parents, i);
+            if (componentByRoot[root] < 0) {
+                componentByRoot[root] = components.size();
+                components.add(new ArrayList<ThreadInfo>());
+            }
+            components.get(componentByRoot[root]).add(threads.get(i));
+        }
+        return components;
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[listeners=" + listeners.size() + ", started=" + (future != null) + ']';
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.lang.management.MemoryUsage;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * One garbage collection, read from a GC notification of the jvm: collector, action and cause,
+ * duration, and the used memory of each pool before and after the collection.
+ */
+public class GcEvent implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String gcName;
+    private final String gcAction;
+    private final String gcCause;
+    private final long id;
+    private final long startTimeMillis;
+    private final long durationMillis;
+    private final long timeMillis;
+    private final Map<String, Long> usedBeforeByPool;
+    private final Map<String, Long> usedAfterByPool;
+    private final long heapUsedBefore;
+    private final long heapUsedAfter;
+
+    GcEvent(String gcName, String gcAction, String gcCause, long id, long startTimeMillis, long durationMillis,
+            long timeMillis, Map<String, Long> usedBeforeByPool, Map<String, Long> usedAfterByPool,
+            Set<String> heapPoolNames) {
+        super();
+        this.gcName = gcName;
+        this.gcAction = gcAction;
+        this.gcCause = gcCause;
+        this.id = id;
+        this.startTimeMillis = startTimeMillis;
+        this.durationMillis = durationMillis;
+        this.timeMillis = timeMillis;
+        this.usedBeforeByPool = usedBeforeByPool;
+        this.usedAfterByPool = usedAfterByPool;
+        this.heapUsedBefore = sum(usedBeforeByPool, heapPoolNames);
+        this.heapUsedAfter = sum(usedAfterByPool, heapPoolNames);
+    }
+
+    /**
+     * Reads the user data of a "com.sun.management.gc.notification" notification, as open data
+     * so that com.sun.management is not needed.
+     *
+     * @param heapPoolNames the names of the heap pools, to compute the heap usage
+     * @param jvmStartTimeMillis the start time of the jvm, to date the event
+     */
+    static GcEvent from(CompositeData data, Set<String> heapPoolNames, long jvmStartTimeMillis) {
+        CompositeData gcInfo = (CompositeData) data.get("gcInfo");
+        long startTime = ((Number) gcInfo.get("startTime")).longValue();
+        long endTime = ((Number) gcInfo.get("endTime")).longValue();
+        return new GcEvent((String) data.get("gcName"), (String) data.get("gcAction"), (String) data.get("gcCause"),
+                ((Number) gcInfo.get("id")).longValue(), startTime, endTime - startTime, jvmStartTimeMillis + endTime,
+                readUsedByPool((TabularData) gcInfo.get("memoryUsageBeforeGc")),
+                readUsedByPool((TabularData) gcInfo.get("memoryUsageAfterGc")), heapPoolNames);
+    }
+
+    private static Map<String, Long> readUsedByPool(TabularData usages) {
+        Map<String, Long> usedByPool = new LinkedHashMap<>();
+        if (usages == null) {
+            return usedByPool;
+        }
+        // rows of {key: pool name, value: MemoryUsage}
+        for (Object row : usages.values()) {
+            CompositeData entry = (CompositeData) row;
+            MemoryUsage usage = MemoryUsage.from((CompositeData) entry.get("value"));
+            usedByPool.put((String) entry.get("key"), usage.getUsed());
+        }
+        return usedByPool;
+    }
+
+    private static long sum(Map<String, Long> usedByPool, Set<String> poolNames) {
+        long sum = 0;
+        for (Map.Entry<String, Long> entry : usedByPool.entrySet()) {
+            if (poolNames.contains(entry.getKey())) {
+                sum += entry.getValue();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the name of the collector, for example "G1 Young Generation"
+     */
+    public String getGcName() {
+        return gcName;
+    }
+
+    /**
+     * @return for example "end of minor GC", "end of major GC", or "end of GC cycle" for the
+     * concurrent cycles whose duration is not a pause
+     */
+    public String getGcAction() {
+        return gcAction;
+    }
+
+    /**
+     * @return for example "Allocation Failure", "G1 Evacuation Pause" or "System.gc()"
+     */
+    public String getGcCause() {
+        return gcCause;
+    }
+
+    /**
+     * @return the number of collections of this collector, including this one
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the start of the collection in milliseconds since the start of the jvm
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return the end of the collection in milliseconds since the epoch
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return the used memory before the collection, by pool name
+     */
+    public Map<String, Long> getUsedBeforeByPool() {
+        return Collections.unmodifiableMap(usedBeforeByPool);
+    }
+
+    /**
+     * @return the used memory after the collection, by pool name
+     */
+    public Map<String, Long> getUsedAfterByPool() {
+        return Collections.unmodifiableMap(usedAfterByPool);
+    }
+
+    /**
+     * @return the used memory of the pool before the collection, or -1 if unknown
+     */
+    public long getUsedBefore(String poolName) {
+        Long used = usedBeforeByPool.get(poolName);
+        return used == null ? -1 : used;
+    }
+
+    /**
+     * @return the used memory of the pool after the collection, or -1 if unknown
+     */
+    public long getUsedAfter(String poolName) {
+        Long used = usedAfterByPool.get(poolName);
+        return used == null ? -1 : used;
+    }
+
+    public long getHeapUsedBefore() {
+        return heapUsedBefore;
+    }
+
+    public long getHeapUsedAfter() {
+        return heapUsedAfter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[gcName=" + gcName + ", gcAction=" + gcAction + ", gcCause=" + gcCause
+                + ", durationMillis=" + durationMillis + ", heapUsedBefore=" + heapUsedBefore + ", heapUsedAfter="
+                + heapUsedAfter + ']';
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Records each garbage collection from the GC notifications of the jvm, instead of the cumulative
+ * collection time of {@link MemoryInfo#getGarbageCollectionTimeMillis()}: the durations go to a
+ * {@link LatencyHistogram} per collector, since the start and over a sliding window, and the last
+ * events are kept with their cause and the heap usage before and after.
+ * <p>
+ * The notifications are read as open data, without com.sun.management. Collectors which do not
+ * emit notifications are not seen. The durations of the concurrent collectors ("end of GC cycle",
+ * ZGC and Shenandoah cycles) are not pauses, they are recorded under their own collector name.
+ * <p>
+ * A listener which fails does not prevent the others from being notified, its exception is kept in
+ * {@link #getLastFailure()}.
+ */
+public class GcMonitor {
+    static final String GARBAGE_COLLECTION_NOTIFICATION = "com.sun.management.gc.notification";
+    private static final long DEFAULT_WINDOW_SECONDS = 60;
+    private static final int DEFAULT_WINDOW_SLICES = 12;
+    private static final int DEFAULT_MAX_RECENT_EVENTS = 256;
+
+    /**
+     * Receives the collections, on the notification thread of the jvm.
+     */
+    public interface Listener {
+        void gcEvent(GcEvent event);
+    }
+
+    private static final class CollectorHistograms {
+        final LatencyHistogram total = new LatencyHistogram();
+        final SlidingLatencyHistogram window;
+
+        CollectorHistograms(long sliceNanos, int sliceCount) {
+            window = new SlidingLatencyHistogram(sliceNanos, sliceCount);
+        }
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, CollectorHistograms> histograms = new ConcurrentHashMap<>();
+    private final Deque<GcEvent> recentEvents = new ArrayDeque<>();
+    private final long sliceNanos;
+    private final int sliceCount;
+    private final long windowMillis;
+    private final int maxRecentEvents;
+    private final Set<String> heapPoolNames;
+    private final long jvmStartTimeMillis;
+    private final NotificationListener notificationListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                record(GcEvent.from((CompositeData) notification.getUserData(), heapPoolNames,
+                        jvmStartTimeMillis));
+            }
+        }
+    };
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private volatile RuntimeException lastFailure;
+
+    /**
+     * A monitor with a window of one minute sliding by steps of 5 seconds, keeping the last 256 events.
+     */
+    public GcMonitor() {
+        this(DEFAULT_WINDOW_SECONDS, TimeUnit.SECONDS, DEFAULT_WINDOW_SLICES, DEFAULT_MAX_RECENT_EVENTS);
+    }
+
+    /**
+     * @param window the duration of the sliding window
+     * @param slices the number of steps of the window
+     * @param maxRecentEvents the number of events kept, at least 1
+     */
+    public GcMonitor(long window, TimeUnit unit, int slices, int maxRecentEvents) {
+        super();
+        if (slices <= 0 || unit.toNanos(window) < slices) {
+            throw new IllegalArgumentException("window must be positive and longer than its slices");
+        }
+        if (maxRecentEvents < 1) {
+            throw new IllegalArgumentException("maxRecentEvents must be at least 1: " + maxRecentEvents);
+        }
+        this.sliceNanos = unit.toNanos(window) / slices;
+        this.sliceCount = slices;
+        this.windowMillis = TimeUnit.NANOSECONDS.toMillis(sliceNanos * slices);
+        this.maxRecentEvents = maxRecentEvents;
+        Set<String> heapPools = new HashSet<>();
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                heapPools.add(memoryPool.getName());
+            }
+        }
+        this.heapPoolNames = Collections.unmodifiableSet(heapPools);
+        this.jvmStartTimeMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the last exception thrown by a listener, or null if none failed
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Registers for the notifications of all the collectors.
+     */
+    public synchronized void start() {
+        if (!emitters.isEmpty()) {
+            throw new IllegalStateException("monitor already started");
+        }
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (garbageCollector instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) garbageCollector;
+                emitter.addNotificationListener(notificationListener, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(notificationListener);
+            } catch (ListenerNotFoundException e) {
+                // already removed
+            }
+        }
+        emitters.clear();
+    }
+
+    /**
+     * @return true if at least one collector emits notifications
+     */
+    public synchronized boolean isStarted() {
+        return !emitters.isEmpty();
+    }
+
+    void record(GcEvent event) {
+        CollectorHistograms collector = histograms.get(event.getGcName());
+        if (collector == null) {
+            CollectorHistograms created = new CollectorHistograms(sliceNanos, sliceCount);
+            collector = histograms.putIfAbsent(event.getGcName(), created);
+            if (collector == null) {
+                collector = created;
+            }
+        }
+        long duration = Math.max(0, event.getDurationMillis());
+        collector.total.record(duration);
+        collector.window.record(duration, System.nanoTime());
+        synchronized (recentEvents) {
+            if (recentEvents.size() >= maxRecentEvents) {
+                recentEvents.removeFirst();
+            }
+            recentEvents.addLast(event);
+        }
+        for (Listener listener : listeners) {
+            // an exception would escape to the notification dispatcher and skip the other listeners
+            try {
+                listener.gcEvent(event);
+            } catch (RuntimeException e) {
+                lastFailure = e;
+            }
+        }
+    }
+
+    /**
+     * @return the last events, oldest first
+     */
+    public List<GcEvent> getRecentEvents() {
+        synchronized (recentEvents) {
+            return new ArrayList<>(recentEvents);
+        }
+    }
+
+    /**
+     * @return the events of the recent ones which lasted at least {@code minDurationMillis}
+     */
+    public List<GcEvent> getRecentEvents(long minDurationMillis) {
+        List<GcEvent> result = new ArrayList<>();
+        for (GcEvent event : getRecentEvents()) {
+            if (event.getDurationMillis() >= minDurationMillis) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the durations of each collector since the start, by collector name
+     */
+    public Map<String, GcPauseStats> getPauseStats() {
+        Map<String, GcPauseStats> result = new LinkedHashMap<>();
+        for (Map.Entry<String, CollectorHistograms> entry : new TreeMap<>(histograms).entrySet()) {
+            result.put(entry.getKey(), new GcPauseStats(entry.getKey(), -1, entry.getValue().total));
+        }
+        return result;
+    }
+
+    /**
+     * @return the durations of each collector over the sliding window, by collector name
+     */
+    public Map<String, GcPauseStats> getWindowPauseStats() {
+        long now = System.nanoTime();
+        Map<String, GcPauseStats> result = new LinkedHashMap<>();
+        for (Map.Entry<String, CollectorHistograms> entry : new TreeMap<>(histograms).entrySet()) {
+            result.put(entry.getKey(),
+                    new GcPauseStats(entry.getKey(), windowMillis, entry.getValue().window.snapshot(now)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the durations of all collectors together over the sliding window
+     */
+    public GcPauseStats getWindowPauseStatsOfAllCollectors() {
+        long now = System.nanoTime();
+        LatencyHistogram merged = new LatencyHistogram();
+        for (CollectorHistograms collector : histograms.values()) {
+            merged.add(collector.window.snapshot(now));
+        }
+        return new GcPauseStats(null, windowMillis, merged);
+    }
+
+    /**
+     * Forgets the recorded durations and events.
+     */
+    public void reset() {
+        histograms.clear();
+        synchronized (recentEvents) {
+            recentEvents.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[collectors=" + histograms.keySet() + ", started=" + isStarted() + ']';
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+
+/**
+ * Distribution of the collection durations of a collector, in milliseconds. Values are -1 when
+ * there was no collection.
+ */
+public class GcPauseStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String gcName;
+    private final long windowMillis;
+    private final long count;
+    private final long p50Millis;
+    private final long p90Millis;
+    private final long p99Millis;
+    private final long maxMillis;
+
+    GcPauseStats(String gcName, long windowMillis, LatencyHistogram histogram) {
+        super();
+        this.gcName = gcName;
+        this.windowMillis = windowMillis;
+        this.count = histogram.getCount();
+        this.p50Millis = histogram.getValueAtPercentile(50);
+        this.p90Millis = histogram.getValueAtPercentile(90);
+        this.p99Millis = histogram.getValueAtPercentile(99);
+        this.maxMillis = histogram.getMax();
+    }
+
+    /**
+     * @return the name of the collector, or null for all collectors
+     */
+    public String getGcName() {
+        return gcName;
+    }
+
+    /**
+     * @return the duration of the window, or -1 since the start of the monitor
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getP50Millis() {
+        return p50Millis;
+    }
+
+    public long getP90Millis() {
+        return p90Millis;
+    }
+
+    public long getP99Millis() {
+        return p99Millis;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[gcName=" + gcName + ", count=" + count + ", p50Millis=" + p50Millis
+                + ", p99Millis=" + p99Millis + ", maxMillis=" + maxMillis + ']';
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Derives from the GC events of a {@link GcMonitor} what is otherwise read in the GC logs:
+ * <ul>
+ * <li>the allocation rate: growth of the young generation between the end of a collection and the
+ * start of the next one,</li>
+ * <li>the promotion rate: growth of the old generation during the young collections,</li>
+ * <li>the live set: heap used after each full collection, over time.</li>
+ * </ul>
+ * The generations are recognized by the names of the pools: "Eden" and "Survivor" pools are young,
+ * "Old Gen" and "Tenured Gen" pools are old. The allocations are only measured between the
+ * stop-the-world minor and major collections: the "end of GC cycle" notifications of G1 report a
+ * usage before the cycle started, older than the pauses seen since. With a single-generation
+ * collector (ZGC, Shenandoah) the allocations are the growth of the whole heap between the cycles
+ * of the first cycle collector seen, its pauses are ignored and nothing is promoted; what is
+ * allocated during a cycle is netted with what the cycle reclaims, so it is a lower bound. The mixed
+ * collections of G1 are not told apart from the young ones by the notifications, so the live set
+ * only comes from full collections there.
+ * <p>
+ * Register with {@code gcMonitor.addListener(analyzer)}.
+ */
+public class GcRateAnalyzer implements GcMonitor.Listener {
+    private static final int DEFAULT_MAX_LIVE_SET_SAMPLES = 128;
+    private static final String MAJOR_GC_ACTION = "end of major GC";
+    private static final String MINOR_GC_ACTION = "end of minor GC";
+    private static final String CYCLE_GC_ACTION = "end of GC cycle";
+
+    private final int maxLiveSetSamples;
+    private final Deque<long[]> liveSetSamples = new ArrayDeque<>();
+    private String cycleGcName;
+    private long firstTimeMillis = -1;
+    private long lastTimeMillis = -1;
+    private long lastUsedAfter = -1;
+    private long allocatedBytes;
+    private long promotedBytes;
+    private long lastAllocatedBytes = -1;
+    private long lastIntervalMillis = -1;
+    private long lastPromotedBytes = -1;
+    private long youngCollectionCount;
+
+    public GcRateAnalyzer() {
+        this(DEFAULT_MAX_LIVE_SET_SAMPLES);
+    }
+
+    /**
+     * @param maxLiveSetSamples the number of live set values kept, at least 1
+     */
+    public GcRateAnalyzer(int maxLiveSetSamples) {
+        super();
+        if (maxLiveSetSamples < 1) {
+            throw new IllegalArgumentException("maxLiveSetSamples must be at least 1: " + maxLiveSetSamples);
+        }
+        this.maxLiveSetSamples = maxLiveSetSamples;
+    }
+
+    static boolean isYoungPool(String poolName) {
+        return poolName.contains("Eden") || poolName.contains("Survivor");
+    }
+
+    static boolean isOldPool(String poolName) {
+        return poolName.contains("Old Gen") || poolName.contains("Tenured Gen");
+    }
+
+    @Override
+    public synchronized void gcEvent(GcEvent event) {
+        String action = event.getGcAction();
+        long timeMillis = event.getTimeMillis();
+        long youngBefore = sumYoung(event.getUsedBeforeByPool());
+        if (youngBefore >= 0) {
+            // the concurrent cycles overlap the pauses, only chain the pauses
+            if (MINOR_GC_ACTION.equals(action) || MAJOR_GC_ACTION.equals(action)) {
+                chainAllocation(youngBefore, sumYoung(event.getUsedAfterByPool()), timeMillis);
+            }
+        } else if (CYCLE_GC_ACTION.equals(action)) {
+            // single generation: the pauses happen within the cycles, only chain the cycles of one
+            // collector
+            if (cycleGcName == null) {
+                cycleGcName = event.getGcName();
+            }
+            if (cycleGcName.equals(event.getGcName())) {
+                chainAllocation(event.getHeapUsedBefore(), event.getHeapUsedAfter(), timeMillis);
+            }
+        }
+
+        if (MINOR_GC_ACTION.equals(action)) {
+            long oldBefore = sumOld(event.getUsedBeforeByPool());
+            long oldAfter = sumOld(event.getUsedAfterByPool());
+            if (oldBefore >= 0) {
+                long promoted = Math.max(0, oldAfter - oldBefore);
+                promotedBytes += promoted;
+                lastPromotedBytes = promoted;
+                youngCollectionCount++;
+            }
+        } else if (MAJOR_GC_ACTION.equals(action)) {
+            if (liveSetSamples.size() >= maxLiveSetSamples) {
+                liveSetSamples.removeFirst();
+            }
+            liveSetSamples.addLast(new long[]{timeMillis, event.getHeapUsedAfter()});
+        }
+    }
+
+    private void chainAllocation(long usedBefore, long usedAfter, long timeMillis) {
+        if (lastUsedAfter >= 0) {
+            // a pool resized in between can make it negative
+            long allocated = Math.max(0, usedBefore - lastUsedAfter);
+            allocatedBytes += allocated;
+            lastAllocatedBytes = allocated;
+            lastIntervalMillis = timeMillis - lastTimeMillis;
+        } else {
+            firstTimeMillis = timeMillis;
+        }
+        lastUsedAfter = usedAfter;
+        lastTimeMillis = timeMillis;
+    }
+
+    private static long sumYoung(Map<String, Long> usedByPool) {
+        long sum = -1;
+        for (Map.Entry<String, Long> entry : usedByPool.entrySet()) {
+            if (isYoungPool(entry.getKey())) {
+                sum = Math.max(sum, 0) + entry.getValue();
+            }
+        }
+        return sum;
+    }
+
+    private static long sumOld(Map<String, Long> usedByPool) {
+        long sum = -1;
+        for (Map.Entry<String, Long> entry : usedByPool.entrySet()) {
+            if (isOldPool(entry.getKey())) {
+                sum = Math.max(sum, 0) + entry.getValue();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the bytes allocated between the first and the last collection
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return the bytes promoted to the old generation by the young collections
+     */
+    public synchronized long getPromotedBytes() {
+        return promotedBytes;
+    }
+
+    /**
+     * @return the average allocation rate between the first and the last collection, or -1 before
+     * two collections
+     */
+    public synchronized double getAllocationBytesPerSecond() {
+        return perSecond(allocatedBytes, lastTimeMillis - firstTimeMillis);
+    }
+
+    /**
+     * @return the allocation rate between the last two collections, or -1 before two collections
+     */
+    public synchronized double getLastAllocationBytesPerSecond() {
+        return perSecond(lastAllocatedBytes, lastIntervalMillis);
+    }
+
+    /**
+     * @return the average promotion rate between the first and the last collection, or -1 before
+     * two collections
+     */
+    public synchronized double getPromotionBytesPerSecond() {
+        return perSecond(promotedBytes, lastTimeMillis - firstTimeMillis);
+    }
+
+    /**
+     * @return the bytes promoted by the last young collection, or -1 before the first one
+     */
+    public synchronized long getLastPromotedBytes() {
+        return lastPromotedBytes;
+    }
+
+    /**
+     * @return the average bytes promoted per young collection, or -1 before the first one
+     */
+    public synchronized long getPromotedBytesPerYoungCollection() {
+        return youngCollectionCount == 0 ? -1 : promotedBytes / youngCollectionCount;
+    }
+
+    private static double perSecond(long bytes, long millis) {
+        if (bytes < 0 || millis <= 0) {
+            return -1;
+        }
+        return bytes * 1000d / millis;
+    }
+
+    /**
+     * @return the heap used after the last full collection, or -1 before the first one
+     */
+    public synchronized long getLiveSetBytes() {
+        return liveSetSamples.isEmpty() ? -1 : liveSetSamples.getLast()[1];
+    }
+
+    /**
+     * @return the heap used after each full collection, by time of the collection in milliseconds
+     * since the epoch, oldest first
+     */
+    public synchronized Map<Long, Long> getLiveSetHistory() {
+        Map<Long, Long> result = new LinkedHashMap<>();
+        for (long[] sample : liveSetSamples) {
+            result.put(sample[0], sample[1]);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[allocationBytesPerSecond=" + getAllocationBytesPerSecond()
+                + ", promotionBytesPerSecond=" + getPromotionBytesPerSecond() + ", liveSetBytes="
+                + getLiveSetBytes() + ']';
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A thread with the cpu it used during the window of a {@link HotThreadsSampler}.
+ */
+public class HotThread implements Serializable, Comparable<HotThread> {
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+    private final String name;
+    private final Thread.State state;
+    private final float cpuPercentage;
+    private final float userPercentage;
+    private final long intervalMillis;
+    private final List<StackTraceElement> stackTrace;
+
+    HotThread(long id, String name, Thread.State state, float cpuPercentage, float userPercentage,
+              long intervalMillis, List<StackTraceElement> stackTrace) {
+        super();
+        assert stackTrace == null || stackTrace instanceof Serializable;
+        this.id = id;
+        this.name = name;
+        this.state = state;
+        this.cpuPercentage = cpuPercentage;
+        this.userPercentage = userPercentage;
+        this.intervalMillis = intervalMillis;
+        this.stackTrace = stackTrace;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the state at the end of the window, or null if the thread has terminated since
+     */
+    public Thread.State getState() {
+        return state;
+    }
+
+    /**
+     * @return the cpu used during the window in percent of one cpu
+     */
+    public float getCpuPercentage() {
+        return cpuPercentage;
+    }
+
+    /**
+     * @return the cpu used in user mode during the window in percent of one cpu, or -1 if unknown
+     */
+    public float getUserPercentage() {
+        return userPercentage;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return the stack at the end of the window, empty if the thread has terminated since
+     */
+    public List<StackTraceElement> getStackTrace() {
+        return Collections.unmodifiableList(stackTrace);
+    }
+
+    /**
+     * Orders by decreasing cpu percentage.
+     */
+    @Override
+    public int compareTo(HotThread o) {
+        int result = Float.compare(o.cpuPercentage, cpuPercentage);
+        return result != 0 ? result : Long.compare(id, o.id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[id=" + id + ", name=" + name + ", state=" + state
+                + ", cpuPercentage=" + cpuPercentage + ']';
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the threads using the most cpu right now, from two readings of the cpu time of all
+ * threads taken an interval apart.
+ * <p>
+ * The cpu times are read with one batched call when the jvm supports it, and the stack traces
+ * are only captured for the top threads, so that a sample stays cheap with many threads.
+ */
+public class HotThreadsSampler {
+
+    private final long intervalNanos;
+    private final int limit;
+    private final int maxDepth;
+
+    /**
+     * @param interval the window over which the cpu usage is computed
+     * @param limit    the number of threads to report
+     * @param maxDepth the maximum number of frames captured for each reported thread
+     */
+    public HotThreadsSampler(long interval, TimeUnit unit, int limit, int maxDepth) {
+        super();
+        if (interval <= 0 || limit < 0 || maxDepth < 0) {
+            throw new IllegalArgumentException("interval must be positive, limit and maxDepth must not be negative");
+        }
+        this.intervalNanos = unit.toNanos(interval);
+        this.limit = limit;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Reads the cpu times, waits for the interval and reads them again.
+     *
+     * @return the hot threads by decreasing cpu percentage, empty if thread cpu time is not supported or disabled
+     */
+    public List<HotThread> sample() throws InterruptedException {
+        if (!ThreadMXBeans.isThreadCpuTimeEnabled() || limit == 0) {
+            return Collections.emptyList();
+        }
+        long[] ids = ThreadMXBeans.THREAD_BEAN.getAllThreadIds();
+        long[] startCpuTimes = ThreadMXBeans.getThreadCpuTime(ids);
+        long[] startUserTimes = ThreadMXBeans.getThreadUserTime(ids);
+        long start = System.nanoTime();
+
+        TimeUnit.NANOSECONDS.sleep(intervalNanos);
+
+        long[] endCpuTimes = ThreadMXBeans.getThreadCpuTime(ids);
+        long[] endUserTimes = ThreadMXBeans.getThreadUserTime(ids);
+        // threads started during the window used all their cpu time in the window
+        long[] newIds = findNewIds(ids, ThreadMXBeans.THREAD_BEAN.getAllThreadIds());
+        long[] newCpuTimes = ThreadMXBeans.getThreadCpuTime(newIds);
+        long[] newUserTimes = ThreadMXBeans.getThreadUserTime(newIds);
+        long elapsedNanos = System.nanoTime() - start;
+
+        int count = ids.length + newIds.length;
+        long[] allIds = Arrays.copyOf(ids, count);
+        System.arraycopy(newIds, 0, allIds, ids.length, newIds.length);
+        long[] cpuDeltas = new long[count];
+        long[] userDeltas = new long[count];
+        for (int i = 0; i < ids.length; i++) {
+            cpuDeltas[i] = delta(startCpuTimes[i], endCpuTimes[i]);
+            userDeltas[i] = delta(startUserTimes[i], endUserTimes[i]);
+        }
+        for (int i = 0; i < newIds.length; i++) {
+            cpuDeltas[ids.length + i] = delta(0, newCpuTimes[i]);
+            userDeltas[ids.length + i] = delta(0, newUserTimes[i]);
+        }
+
+        int[] top = selectTop(cpuDeltas, limit);
+        long[] topIds = new long[top.length];
+        for (int i = 0; i < top.length; i++) {
+            topIds[i] = allIds[top[i]];
+        }
+        java.lang.management.ThreadInfo[] threadInfos = ThreadMXBeans.THREAD_BEAN.getThreadInfo(topIds, maxDepth);
+        long intervalMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        List<HotThread> result = new ArrayList<>(top.length);
+        for (int i = 0; i < top.length; i++) {
+            int index = top[i];
+            java.lang.management.ThreadInfo threadInfo = threadInfos[i];
+            float cpuPercentage = 100f * cpuDeltas[index] / elapsedNanos;
+            float userPercentage = userDeltas[index] < 0 ? -1f : 100f * userDeltas[index] / elapsedNanos;
+            if (threadInfo == null) {
+                // terminated since the last reading
+                result.add(new HotThread(topIds[i], null, null, cpuPercentage, userPercentage, intervalMillis,
+                        new ArrayList<StackTraceElement>(0)));
+            } else {
+                result.add(new HotThread(topIds[i], threadInfo.getThreadName(), threadInfo.getThreadState(),
+                        cpuPercentage, userPercentage, intervalMillis,
+                        new ArrayList<>(Arrays.asList(threadInfo.getStackTrace()))));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return the cpu time used between the two readings, or -1 if unknown
+     */
+    private static long delta(long start, long end) {
+        if (start < 0 || end < 0) {
+            return -1;
+        }
+        return Math.max(0, end - start);
+    }
+
+    private static long[] findNewIds(long[] ids, long[] currentIds) {
+        long[] sortedIds = ids.clone();
+        Arrays.sort(sortedIds);
+        long[] newIds = new long[currentIds.length];
+        int count = 0;
+        for (long id : currentIds) {
+            if (Arrays.binarySearch(sortedIds, id) < 0) {
+                newIds[count++] = id;
+            }
+        }
+        return Arrays.copyOf(newIds, count);
+    }
+
+    /**
+     * @return the indexes of the {@code limit} highest known values, by decreasing value
+     */
+    static int[] selectTop(long[] values, int limit) {
+        int[] top = new int[Math.min(limit, values.length)];
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            long value = values[i];
+            if (value < 0 || size == top.length && value <= values[top[size - 1]]) {
+                continue;
+            }
+            // insertion in the sorted top, the lowest value drops out when full
+            int position = size == top.length ? size - 1 : size++;
+            while (position > 0 && values[top[position - 1]] < value) {
+                top[position] = top[position - 1];
+                position--;
+            }
+            top[position] = i;
+        }
+        return Arrays.copyOf(top, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[intervalMillis=" + TimeUnit.NANOSECONDS.toMillis(intervalNanos)
+                + ", limit=" + limit + ", maxDepth=" + maxDepth + ']';
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal streaming JSON parser: reads one token at a time from a reader, so that a large
+ * document is never held in memory. Only what is needed to read the thread dumps of the jvm.
+ */
+final class JsonPullParser {
+
+    enum Token {
+        START_OBJECT,
+        END_OBJECT,
+        START_ARRAY,
+        END_ARRAY,
+        FIELD_NAME,
+        STRING,
+        NUMBER,
+        TRUE,
+        FALSE,
+        NULL,
+        END_DOCUMENT
+    }
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private final StringBuilder text = new StringBuilder();
+    private String value;
+    // one flag per nesting level: true inside an object, where a string before ':' is a field name
+    private boolean[] objectLevels = new boolean[32];
+    private int depth;
+
+    JsonPullParser(Reader reader) {
+        super();
+        this.reader = reader;
+    }
+
+    /**
+     * @return the next token, {@link Token#END_DOCUMENT} at the end of the input
+     */
+    Token next() throws IOException {
+        value = null;
+        int c = skipSeparators();
+        switch (c) {
+            case -1:
+                return Token.END_DOCUMENT;
+            case '{':
+                push(true);
+                return Token.START_OBJECT;
+            case '}':
+                depth--;
+                return Token.END_OBJECT;
+            case '[':
+                push(false);
+                return Token.START_ARRAY;
+            case ']':
+                depth--;
+                return Token.END_ARRAY;
+            case '"':
+                value = readString();
+                if (depth > 0 && objectLevels[depth - 1] && peekSeparator() == ':') {
+                    return Token.FIELD_NAME;
+                }
+                return Token.STRING;
+            case 't':
+                expect("rue");
+                value = "true";
+                return Token.TRUE;
+            case 'f':
+                expect("alse");
+                value = "false";
+                return Token.FALSE;
+            case 'n':
+                expect("ull");
+                return Token.NULL;
+            default:
+                if (c == '-' || c >= '0' && c <= '9') {
+                    value = readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw new IOException("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * @return the field name, string, number or boolean of the current token, null otherwise
+     */
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * Skips the value starting with {@code token}, including all its content if it is an object or an array.
+     */
+    void skipValue(Token token) throws IOException {
+        if (token != Token.START_OBJECT && token != Token.START_ARRAY) {
+            return;
+        }
+        int nesting = 1;
+        while (nesting > 0) {
+            Token next = next();
+            if (next == Token.START_OBJECT || next == Token.START_ARRAY) {
+                nesting++;
+            } else if (next == Token.END_OBJECT || next == Token.END_ARRAY) {
+                nesting--;
+            } else if (next == Token.END_DOCUMENT) {
+                throw new IOException("Unexpected end of document");
+            }
+        }
+    }
+
+    private void push(boolean object) {
+        if (depth == objectLevels.length) {
+            boolean[] levels = new boolean[depth * 2];
+            System.arraycopy(objectLevels, 0, levels, 0, depth);
+            objectLevels = levels;
+        }
+        objectLevels[depth++] = object;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Skips whitespace, ',' and ':', which the token types make redundant.
+     */
+    private int skipSeparators() throws IOException {
+        int c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',' || c == ':') {
+            c = read();
+        }
+        return c;
+    }
+
+    /**
+     * @return the next character which is not whitespace, without consuming it
+     */
+    private int peekSeparator() throws IOException {
+        int c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            c = read();
+        }
+        if (c != -1) {
+            position--;
+        }
+        return c;
+    }
+
+    private void expect(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw new IOException("Invalid literal");
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c == -1) {
+                throw new IOException("Unterminated string");
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw new IOException("Invalid unicode escape");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        text.append((char) code);
+                        break;
+                    case -1:
+                        throw new IOException("Unterminated string");
+                    default:
+                        // '"', '\\' and '/'
+                        text.append((char) c);
+                        break;
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private String readNumber(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (true) {
+            int c = read();
+            if (c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                text.append((char) c);
+            } else {
+                if (c != -1) {
+                    position--;
+                }
+                return text.toString();
+            }
+        }
+    }
+}
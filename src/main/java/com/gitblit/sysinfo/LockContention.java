@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+
+/**
+ * An edge of the lock owner graph of a {@link LockContentionMonitor}: a thread seen blocked on a lock
+ * held by another thread, with the blocked time attributed to it over the samples.
+ */
+public final class LockContention implements Serializable, Comparable<LockContention> {
+    private static final long serialVersionUID = 1L;
+
+    private final String lockName;
+    private final long ownerId;
+    private final String ownerName;
+    private final long waiterId;
+    private final String waiterName;
+    private long blockedCount;
+    private long blockedTimeMillis;
+    private int observationCount;
+
+    LockContention(String lockName, long ownerId, String ownerName, long waiterId, String waiterName) {
+        super();
+        this.lockName = lockName;
+        this.ownerId = ownerId;
+        this.ownerName = ownerName;
+        this.waiterId = waiterId;
+        this.waiterName = waiterName;
+    }
+
+    LockContention(LockContention contention) {
+        this(contention.lockName, contention.ownerId, contention.ownerName, contention.waiterId,
+                contention.waiterName);
+        this.blockedCount = contention.blockedCount;
+        this.blockedTimeMillis = contention.blockedTimeMillis;
+        this.observationCount = contention.observationCount;
+    }
+
+    void add(long blockedCountDelta, long blockedTimeMillisDelta) {
+        blockedCount += blockedCountDelta;
+        blockedTimeMillis += blockedTimeMillisDelta;
+        observationCount++;
+    }
+
+    public String getLockName() {
+        return lockName;
+    }
+
+    /**
+     * @return the id of the thread holding the lock, or -1 if unknown
+     */
+    public long getOwnerId() {
+        return ownerId;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public long getWaiterId() {
+        return waiterId;
+    }
+
+    public String getWaiterName() {
+        return waiterName;
+    }
+
+    /**
+     * @return the number of times the waiter blocked during the intervals which ended with the waiter
+     * blocked on this lock, whatever the locks it blocked on during these intervals
+     */
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     * @return the time the waiter spent blocked during the intervals which ended with the waiter blocked
+     * on this lock, an estimate of the time blocked on it; 0 if thread contention monitoring is not supported
+     */
+    public long getBlockedTimeMillis() {
+        return blockedTimeMillis;
+    }
+
+    /**
+     * @return the number of samples in which the waiter was blocked on the lock held by the owner
+     */
+    public int getObservationCount() {
+        return observationCount;
+    }
+
+    /**
+     * Orders by decreasing attributed blocked time, then by decreasing number of observations.
+     */
+    @Override
+    public int compareTo(LockContention o) {
+        int result = Long.compare(o.blockedTimeMillis, blockedTimeMillis);
+        if (result == 0) {
+            result = Integer.compare(o.observationCount, observationCount);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[lockName=" + lockName + ", owner=" + ownerName + ", waiter="
+                + waiterName + ", blockedTimeMillis=" + blockedTimeMillis + ", observationCount="
+                + observationCount + ']';
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates lock contention from the blocked counts and times of the threads, and builds a
+ * "who blocks whom" graph ranked by the blocked time attributed to each edge.
+ * <p>
+ * {@link #start()} enables thread contention monitoring, so that the blocked times are measured,
+ * and {@link #stop()} restores the previous setting. Each {@link #sample()} reads the blocked
+ * count and time of all threads with one state-only capture, and adds the increase since the
+ * previous sample of each thread currently blocked to the edge from its lock owner to itself.
+ * <p>
+ * This is sampling, not an accounting of the blocked time per monitor: only the threads BLOCKED at
+ * the instant of a sample get an edge, and their whole blocked time since the previous sample is
+ * credited to the lock and owner of that instant, even if part of it was spent on other locks. A
+ * thread which blocked only between two samples is not seen at all. The attributed times are
+ * accurate for long or frequent contention and become rough when the sampling period is long
+ * compared to the blocking.
+ */
+public class LockContentionMonitor {
+
+    private long[] previousIds = new long[0];
+    private long[] previousBlockedCounts = new long[0];
+    private long[] previousBlockedTimes = new long[0];
+    private boolean sampled;
+    private final Map<EdgeKey, LockContention> edges = new HashMap<>();
+    private Boolean previousContentionMonitoring;
+
+    public LockContentionMonitor() {
+        super();
+    }
+
+    /**
+     * Key of an edge of the graph.
+     */
+    private static final class EdgeKey {
+        private final String lockName;
+        private final long ownerId;
+        private final long waiterId;
+
+        EdgeKey(String lockName, long ownerId, long waiterId) {
+            this.lockName = lockName;
+            this.ownerId = ownerId;
+            this.waiterId = waiterId;
+        }
+
+        @Override
+        public int hashCode() {
+            return (lockName.hashCode() * 31 + Long.hashCode(ownerId)) * 31 + Long.hashCode(waiterId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EdgeKey)) {
+                return false;
+            }
+            EdgeKey other = (EdgeKey) obj;
+            return ownerId == other.ownerId && waiterId == other.waiterId && lockName.equals(other.lockName);
+        }
+    }
+
+    /**
+     * @return whether the jvm can measure the blocked times
+     */
+    public static boolean isSupported() {
+        return ThreadMXBeans.THREAD_BEAN.isThreadContentionMonitoringSupported();
+    }
+
+    /**
+     * Enables thread contention monitoring if supported.
+     */
+    public synchronized void start() {
+        if (previousContentionMonitoring == null && isSupported()) {
+            previousContentionMonitoring = ThreadMXBeans.THREAD_BEAN.isThreadContentionMonitoringEnabled();
+            ThreadMXBeans.THREAD_BEAN.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    /**
+     * Restores the thread contention monitoring setting found by {@link #start()}.
+     */
+    public synchronized void stop() {
+        if (previousContentionMonitoring != null) {
+            ThreadMXBeans.THREAD_BEAN.setThreadContentionMonitoringEnabled(previousContentionMonitoring);
+            previousContentionMonitoring = null;
+        }
+    }
+
+    /**
+     * Reads the blocked counts and times of the threads and credits the increases of the threads
+     * blocked at this instant to the graph. The first sample only records the current values.
+     */
+    public synchronized void sample() {
+        long[] ids = ThreadMXBeans.THREAD_BEAN.getAllThreadIds();
+        Arrays.sort(ids);
+        java.lang.management.ThreadInfo[] threadInfos = ThreadMXBeans.THREAD_BEAN.getThreadInfo(ids, 0);
+        long[] blockedCounts = new long[ids.length];
+        long[] blockedTimes = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            java.lang.management.ThreadInfo threadInfo = threadInfos[i];
+            if (threadInfo == null) {
+                blockedCounts[i] = -1;
+                blockedTimes[i] = -1;
+                continue;
+            }
+            blockedCounts[i] = threadInfo.getBlockedCount();
+            blockedTimes[i] = threadInfo.getBlockedTime();
+            if (!sampled || threadInfo.getThreadState() != Thread.State.BLOCKED || threadInfo.getLockName() == null) {
+                continue;
+            }
+            int previous = Arrays.binarySearch(previousIds, ids[i]);
+            long countDelta = previous >= 0 && previousBlockedCounts[previous] >= 0
+                    ? blockedCounts[i] - previousBlockedCounts[previous] : blockedCounts[i];
+            long timeDelta = 0;
+            if (blockedTimes[i] >= 0) {
+                timeDelta = previous >= 0 && previousBlockedTimes[previous] >= 0
+                        ? blockedTimes[i] - previousBlockedTimes[previous] : blockedTimes[i];
+            }
+            EdgeKey key = new EdgeKey(threadInfo.getLockName(), threadInfo.getLockOwnerId(), ids[i]);
+            LockContention edge = edges.get(key);
+            if (edge == null) {
+                edge = new LockContention(threadInfo.getLockName(), threadInfo.getLockOwnerId(),
+                        threadInfo.getLockOwnerName(), ids[i], threadInfo.getThreadName());
+                edges.put(key, edge);
+            }
+            edge.add(Math.max(0, countDelta), Math.max(0, timeDelta));
+        }
+        previousIds = ids;
+        previousBlockedCounts = blockedCounts;
+        previousBlockedTimes = blockedTimes;
+        sampled = true;
+    }
+
+    /**
+     * @return a copy of the edges of the graph, by decreasing attributed blocked time
+     */
+    public synchronized List<LockContention> getLockOwnerGraph() {
+        List<LockContention> result = new ArrayList<>(edges.size());
+        for (LockContention edge : edges.values()) {
+            result.add(new LockContention(edge));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Sums the blocked time attributed to the edges of the graph by lock, to rank the hot monitors.
+     * Subject to the sampling limit described on the class, it is an estimate and not the time
+     * actually spent blocked on each monitor.
+     *
+     * @return the attributed blocked time of each lock in milliseconds, by decreasing time
+     */
+    public synchronized Map<String, Long> getAttributedBlockedTimeMillisByLock() {
+        Map<String, long[]> totals = new HashMap<>();
+        for (LockContention edge : edges.values()) {
+            long[] total = totals.get(edge.getLockName());
+            if (total == null) {
+                total = new long[1];
+                totals.put(edge.getLockName(), total);
+            }
+            total[0] += edge.getBlockedTimeMillis();
+        }
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(totals.entrySet());
+        Collections.sort(entries, (e1, e2) -> Long.compare(e2.getValue()[0], e1.getValue()[0]));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : entries) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Clears the graph, the next sample only records the current values.
+     */
+    public synchronized void reset() {
+        edges.clear();
+        sampled = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[edges=" + edges.size() + ", contentionMonitoring="
+                + (previousContentionMonitoring != null) + ']';
+    }
+}
@@ -22,11 +22,11 @@ import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryUsage;
-import java.lang.management.OperatingSystemMXBean;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.List;
+
+import com.gitblit.sysinfo.OperatingSystemMetrics.Counter;
 
 /**
  * This code was extracted from JavaMelody and refactored.
@@ -48,11 +48,15 @@ public class MemoryInfo implements Serializable {
     private final long usedPhysicalMemorySize;
     private final long usedSwapSpaceSize;
     private final String memoryDetails;
+    private final List<MemoryPoolInfo> memoryPoolInfoList;
+    private final List<BufferPoolInfo> bufferPoolInfoList;
 
     public MemoryInfo() {
         super();
         usedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
         maxMemory = Runtime.getRuntime().maxMemory();
+        memoryPoolInfoList = MemoryPoolInfo.buildMemoryPoolInfoList();
+        bufferPoolInfoList = BufferPoolInfo.buildBufferPoolInfoList();
         final MemoryPoolMXBean permGenMemoryPool = getPermGenMemoryPool();
         if (permGenMemoryPool != null) {
             final MemoryUsage usage = permGenMemoryPool.getUsage();
@@ -66,31 +70,30 @@ public class MemoryInfo implements Serializable {
         loadedClassesCount = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
         garbageCollectionTimeMillis = buildGarbageCollectionTimeMillis();
 
-        final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
-        if (isSunOsMBean(operatingSystem)) {
-            usedPhysicalMemorySize = getLongFromOperatingSystem(operatingSystem, "getTotalPhysicalMemorySize")
-                    - getLongFromOperatingSystem(operatingSystem, "getFreePhysicalMemorySize");
-            usedSwapSpaceSize = getLongFromOperatingSystem(operatingSystem, "getTotalSwapSpaceSize")
-                    - getLongFromOperatingSystem(operatingSystem, "getFreeSwapSpaceSize");
-        } else {
-            usedPhysicalMemorySize = -1;
-            usedSwapSpaceSize = -1;
-        }
+        final long[] osCounters = OperatingSystemMetrics.newValues();
+        OperatingSystemMetrics.readAll(osCounters);
+        usedPhysicalMemorySize = difference(osCounters, Counter.TOTAL_PHYSICAL_MEMORY_SIZE, Counter.FREE_PHYSICAL_MEMORY_SIZE);
+        usedSwapSpaceSize = difference(osCounters, Counter.TOTAL_SWAP_SPACE_SIZE, Counter.FREE_SWAP_SPACE_SIZE);
 
-        memoryDetails = buildMemoryDetails();
+        memoryDetails = buildMemoryDetails(osCounters);
     }
 
     private static MemoryPoolMXBean getPermGenMemoryPool() {
+        MemoryPoolMXBean metaspace = null;
         for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
             // name is "Perm Gen" or "PS Perm Gen" (32 vs 64 bits ?)
             if (memoryPool.getName().endsWith("Perm Gen")) {
                 return memoryPool;
             }
+            if ("Metaspace".equals(memoryPool.getName())) {
+                metaspace = memoryPool;
+            }
         }
-        return null;
+        // java 8+: Metaspace replaces Perm Gen, its max is -1 unless MaxMetaspaceSize is set
+        return metaspace;
     }
 
-    private static long buildGarbageCollectionTimeMillis() {
+    static long buildGarbageCollectionTimeMillis() {
         long garbageCollectionTime = 0;
         for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
             garbageCollectionTime += garbageCollector.getCollectionTime();
@@ -98,69 +101,44 @@ public class MemoryInfo implements Serializable {
         return garbageCollectionTime;
     }
 
-    private String buildMemoryDetails() {
+    private static long difference(long[] osCounters, Counter total, Counter free) {
+        long totalValue = osCounters[total.ordinal()];
+        long freeValue = osCounters[free.ordinal()];
+        if (totalValue < 0 || freeValue < 0) {
+            return -1;
+        }
+        return totalValue - freeValue;
+    }
+
+    private String buildMemoryDetails(long[] osCounters) {
         NumberFormat integerFormat = DecimalFormat.getIntegerInstance();
         String nonHeapMemory = "Non heap memory = " +
-                integerFormat.format(usedNonHeapMemory / 1024 / 1024) + MO + " (Perm Gen, Code Cache)";
+                integerFormat.format(usedNonHeapMemory / 1024 / 1024) + MO + " (Perm Gen or Metaspace, Code Cache)";
         String classLoading = "Loaded classes = " + integerFormat.format(loadedClassesCount);
         String gc = "Garbage collection time = " + integerFormat.format(garbageCollectionTimeMillis) + " ms";
-        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
         String osInfo = "";
-        if (isSunOsMBean(operatingSystem)) {
+        if (osCounters[Counter.PROCESS_CPU_TIME.ordinal()] >= 0) {
             osInfo = "Process cpu time = "
-                    + integerFormat.format(getLongFromOperatingSystem(operatingSystem,
-                    "getProcessCpuTime") / 1000000)
+                    + integerFormat.format(osCounters[Counter.PROCESS_CPU_TIME.ordinal()] / 1000000)
                     + " ms,\nCommitted virtual memory = "
-                    + integerFormat.format(getLongFromOperatingSystem(operatingSystem,
-                    "getCommittedVirtualMemorySize") / 1024 / 1024)
+                    + integerFormat.format(osCounters[Counter.COMMITTED_VIRTUAL_MEMORY_SIZE.ordinal()] / 1024 / 1024)
                     + MO
                     + ",\nFree physical memory = "
-                    + integerFormat.format(getLongFromOperatingSystem(operatingSystem,
-                    "getFreePhysicalMemorySize") / 1024 / 1024)
+                    + integerFormat.format(osCounters[Counter.FREE_PHYSICAL_MEMORY_SIZE.ordinal()] / 1024 / 1024)
                     + MO
                     + ",\nTotal physical memory = "
-                    + integerFormat.format(getLongFromOperatingSystem(operatingSystem,
-                    "getTotalPhysicalMemorySize") / 1024 / 1024)
+                    + integerFormat.format(osCounters[Counter.TOTAL_PHYSICAL_MEMORY_SIZE.ordinal()] / 1024 / 1024)
                     + MO
                     + ",\nFree swap space = "
-                    + integerFormat.format(getLongFromOperatingSystem(operatingSystem,
-                    "getFreeSwapSpaceSize") / 1024 / 1024)
+                    + integerFormat.format(osCounters[Counter.FREE_SWAP_SPACE_SIZE.ordinal()] / 1024 / 1024)
                     + MO
                     + ",\nTotal swap space = "
-                    + integerFormat.format(getLongFromOperatingSystem(operatingSystem,
-                    "getTotalSwapSpaceSize") / 1024 / 1024) + MO;
+                    + integerFormat.format(osCounters[Counter.TOTAL_SWAP_SPACE_SIZE.ordinal()] / 1024 / 1024) + MO;
         }
 
         return nonHeapMemory + NEXT + classLoading + NEXT + gc + NEXT + osInfo;
     }
 
-    private static boolean isSunOsMBean(OperatingSystemMXBean operatingSystem) {
-        String className = operatingSystem.getClass().getName();
-        return "com.sun.management.OperatingSystem".equals(className)
-                || "com.sun.management.UnixOperatingSystem".equals(className)
-                // sun.management.OperatingSystemImpl for java 8
-                || "sun.management.OperatingSystemImpl".equals(className);
-    }
-
-    static long getLongFromOperatingSystem(OperatingSystemMXBean operatingSystem, String methodName) {
-        try {
-            Method method = operatingSystem.getClass().getMethod(methodName, (Class<?>[]) null);
-            method.setAccessible(true);
-            return (Long) method.invoke(operatingSystem, (Object[]) null);
-        } catch (InvocationTargetException e) {
-            if (e.getCause() instanceof Error) {
-                throw (Error) e.getCause();
-            } else if (e.getCause() instanceof RuntimeException) {
-                throw (RuntimeException) e.getCause();
-            }
-            throw new IllegalStateException(e.getCause());
-        } catch (NoSuchMethodException e) {
-            throw new IllegalArgumentException(e);
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException(e);
-        }
-    }
-
     public long getUsedMemory() {
         return usedMemory;
     }
@@ -173,10 +151,30 @@ public class MemoryInfo implements Serializable {
         return 100d * usedMemory / maxMemory;
     }
 
+    /**
+     * @return the usage of each memory pool, heap pools first
+     */
+    public List<MemoryPoolInfo> getMemoryPoolInfoList() {
+        return memoryPoolInfoList;
+    }
+
+    /**
+     * @return the direct and mapped buffer pools, outside of the heap and of the non-heap memory
+     */
+    public List<BufferPoolInfo> getBufferPoolInfoList() {
+        return bufferPoolInfoList;
+    }
+
+    /**
+     * @return the used Perm Gen, or the used Metaspace since java 8
+     */
     public long getUsedPermGen() {
         return usedPermGen;
     }
 
+    /**
+     * @return the max Perm Gen, or the max Metaspace since java 8 (-1 if unbounded)
+     */
     public long getMaxPermGen() {
         return maxPermGen;
     }
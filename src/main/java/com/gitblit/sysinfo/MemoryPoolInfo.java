@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Usage of one memory pool of the jvm (eden, old gen, Metaspace, Compressed Class Space, CodeHeap
+ * segments...): current and peak usage, and usage after the last collection for the heap pools.
+ * Unknown or unsupported values are -1.
+ */
+public class MemoryPoolInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final boolean heap;
+    private final List<String> memoryManagerNames;
+    private final long init;
+    private final long used;
+    private final long committed;
+    private final long max;
+    private final long peakUsed;
+    private final long peakCommitted;
+    private final long collectionUsed;
+    private final long collectionCommitted;
+    private final long usageThreshold;
+    private final long usageThresholdCount;
+    private final long collectionUsageThreshold;
+    private final long collectionUsageThresholdCount;
+
+    MemoryPoolInfo(MemoryPoolMXBean memoryPool) {
+        super();
+        this.name = memoryPool.getName();
+        this.heap = memoryPool.getType() == MemoryType.HEAP;
+        this.memoryManagerNames = Collections.unmodifiableList(Arrays.asList(memoryPool.getMemoryManagerNames()));
+        MemoryUsage usage = memoryPool.getUsage();
+        this.init = usage == null ? -1 : usage.getInit();
+        this.used = usage == null ? -1 : usage.getUsed();
+        this.committed = usage == null ? -1 : usage.getCommitted();
+        this.max = usage == null ? -1 : usage.getMax();
+        MemoryUsage peakUsage = memoryPool.getPeakUsage();
+        this.peakUsed = peakUsage == null ? -1 : peakUsage.getUsed();
+        this.peakCommitted = peakUsage == null ? -1 : peakUsage.getCommitted();
+        MemoryUsage collectionUsage = memoryPool.getCollectionUsage();
+        this.collectionUsed = collectionUsage == null ? -1 : collectionUsage.getUsed();
+        this.collectionCommitted = collectionUsage == null ? -1 : collectionUsage.getCommitted();
+        if (memoryPool.isUsageThresholdSupported()) {
+            this.usageThreshold = memoryPool.getUsageThreshold();
+            this.usageThresholdCount = memoryPool.getUsageThresholdCount();
+        } else {
+            this.usageThreshold = -1;
+            this.usageThresholdCount = -1;
+        }
+        if (memoryPool.isCollectionUsageThresholdSupported()) {
+            this.collectionUsageThreshold = memoryPool.getCollectionUsageThreshold();
+            this.collectionUsageThresholdCount = memoryPool.getCollectionUsageThresholdCount();
+        } else {
+            this.collectionUsageThreshold = -1;
+            this.collectionUsageThresholdCount = -1;
+        }
+    }
+
+    /**
+     * @return the pools of the jvm, heap pools first
+     */
+    public static List<MemoryPoolInfo> buildMemoryPoolInfoList() {
+        List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+        List<MemoryPoolInfo> heapPools = new ArrayList<>(memoryPools.size());
+        List<MemoryPoolInfo> nonHeapPools = new ArrayList<>(memoryPools.size());
+        for (MemoryPoolMXBean memoryPool : memoryPools) {
+            if (!memoryPool.isValid()) {
+                continue;
+            }
+            MemoryPoolInfo memoryPoolInfo = new MemoryPoolInfo(memoryPool);
+            if (memoryPoolInfo.isHeap()) {
+                heapPools.add(memoryPoolInfo);
+            } else {
+                nonHeapPools.add(memoryPoolInfo);
+            }
+        }
+        heapPools.addAll(nonHeapPools);
+        return Collections.unmodifiableList(heapPools);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true for a pool of the heap, false for a non-heap pool
+     */
+    public boolean isHeap() {
+        return heap;
+    }
+
+    /**
+     * @return the names of the garbage collectors and memory managers of the pool
+     */
+    public List<String> getMemoryManagerNames() {
+        return memoryManagerNames;
+    }
+
+    public long getInit() {
+        return init;
+    }
+
+    public long getUsed() {
+        return used;
+    }
+
+    public long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return the maximum size of the pool, or -1 if undefined (Metaspace by default)
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the used percentage of the max size, or -1 if the max size is undefined
+     */
+    public double getUsedPercentage() {
+        if (used >= 0 && max > 0) {
+            return 100d * used / max;
+        }
+        return -1d;
+    }
+
+    public long getPeakUsed() {
+        return peakUsed;
+    }
+
+    public long getPeakCommitted() {
+        return peakCommitted;
+    }
+
+    /**
+     * @return the memory used after the last collection of the pool, or -1 if not supported
+     * (non-heap pools) or before the first collection
+     */
+    public long getCollectionUsed() {
+        return collectionUsed;
+    }
+
+    public long getCollectionCommitted() {
+        return collectionCommitted;
+    }
+
+    /**
+     * @return the usage threshold in bytes, 0 if disabled, -1 if not supported by the pool
+     */
+    public long getUsageThreshold() {
+        return usageThreshold;
+    }
+
+    /**
+     * @return how many times the usage crossed the threshold, -1 if not supported by the pool
+     */
+    public long getUsageThresholdCount() {
+        return usageThresholdCount;
+    }
+
+    /**
+     * @return the collection usage threshold in bytes, 0 if disabled, -1 if not supported by the pool
+     */
+    public long getCollectionUsageThreshold() {
+        return collectionUsageThreshold;
+    }
+
+    /**
+     * @return how many times the usage after a collection crossed the threshold, -1 if not
+     * supported by the pool
+     */
+    public long getCollectionUsageThresholdCount() {
+        return collectionUsageThresholdCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[name=" + name + ", heap=" + heap + ", used=" + used + ", committed="
+                + committed + ", max=" + max + ", collectionUsed=" + collectionUsed + ']';
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Sets usage and collection usage thresholds on the memory pools and forwards the notifications
+ * of the jvm when they are exceeded, so that memory pressure is reported as it happens rather
+ * than found by polling each pool.
+ * <p>
+ * The thresholds are a fraction of the max size of each pool, or an absolute value per pool name
+ * for the pools without max size (Metaspace by default). The usage thresholds are checked by the
+ * jvm when memory is allocated and notified once per crossing: a pool staying above is not
+ * notified again until it has gone below. The collection usage thresholds are checked after each
+ * collection of the pool and notified after every collection leaving it above: the live data
+ * does not fit anymore.
+ * <p>
+ * The previous thresholds of the pools are restored by {@link #stop()}. A listener which fails
+ * does not prevent the others from being notified, its exception is kept in {@link #getLastFailure()}.
+ */
+public class MemoryPoolMonitor {
+
+    /**
+     * The threshold which was exceeded.
+     */
+    public enum Kind {
+        /** usage threshold, checked on allocation */
+        USAGE,
+        /** collection usage threshold, checked after a collection of the pool */
+        COLLECTION_USAGE
+    }
+
+    /**
+     * Receives the notifications, on the notification thread of the jvm.
+     */
+    public interface Listener {
+        /**
+         * @param usage the usage of the pool when the threshold was crossed
+         * @param count how many times the threshold was crossed
+         */
+        void thresholdExceeded(Kind kind, String poolName, MemoryUsage usage, long count);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final double usageFraction;
+    private final double collectionUsageFraction;
+    private final Map<String, long[]> poolThresholds = new HashMap<>();
+    private final Map<String, long[]> previousThresholds = new HashMap<>();
+    private final NotificationListener notificationListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            MemoryPoolMonitor.this.handleNotification(notification);
+        }
+    };
+    private boolean started;
+    private volatile RuntimeException lastFailure;
+
+    /**
+     * @param usageFraction the usage threshold as a fraction of the max size of each pool, 0 for none
+     * @param collectionUsageFraction the collection usage threshold as a fraction of the max size of
+     * each pool, 0 for none
+     */
+    public MemoryPoolMonitor(double usageFraction, double collectionUsageFraction) {
+        super();
+        if (usageFraction < 0 || usageFraction > 1 || collectionUsageFraction < 0 || collectionUsageFraction > 1) {
+            throw new IllegalArgumentException("fractions must be between 0 and 1");
+        }
+        this.usageFraction = usageFraction;
+        this.collectionUsageFraction = collectionUsageFraction;
+    }
+
+    /**
+     * Sets absolute thresholds for a pool, instead of the fractions of its max size.
+     *
+     * @param usageThreshold the usage threshold in bytes, 0 for none
+     * @param collectionUsageThreshold the collection usage threshold in bytes, 0 for none
+     */
+    public synchronized MemoryPoolMonitor threshold(String poolName, long usageThreshold,
+                                                    long collectionUsageThreshold) {
+        if (usageThreshold < 0 || collectionUsageThreshold < 0) {
+            throw new IllegalArgumentException("thresholds must not be negative");
+        }
+        long[] thresholds = {usageThreshold, collectionUsageThreshold};
+        if (started) {
+            for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (memoryPool.getName().equals(poolName)) {
+                    checkThresholds(memoryPool, thresholds);
+                }
+            }
+        }
+        poolThresholds.put(poolName, thresholds);
+        if (started) {
+            for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (memoryPool.getName().equals(poolName)) {
+                    apply(memoryPool);
+                }
+            }
+        }
+        return this;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the last exception thrown by a listener, or null if none failed
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Sets the thresholds on the pools and registers for the notifications of the jvm.
+     * If a threshold cannot be set, nothing is changed.
+     *
+     * @throws IllegalArgumentException if an absolute threshold exceeds the max size of its pool
+     */
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("monitor already started");
+        }
+        List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+        for (MemoryPoolMXBean memoryPool : memoryPools) {
+            checkThresholds(memoryPool, poolThresholds.get(memoryPool.getName()));
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(notificationListener,
+                null, null);
+        try {
+            for (MemoryPoolMXBean memoryPool : memoryPools) {
+                apply(memoryPool);
+            }
+        } catch (RuntimeException e) {
+            // a pool refused its threshold anyway (security manager, pool changed meanwhile)
+            removeNotificationListener();
+            restorePreviousThresholds();
+            throw e;
+        }
+        started = true;
+    }
+
+    /**
+     * Unregisters and restores the previous thresholds of the pools.
+     */
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        removeNotificationListener();
+        restorePreviousThresholds();
+    }
+
+    private void removeNotificationListener() {
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                    .removeNotificationListener(notificationListener);
+        } catch (ListenerNotFoundException e) {
+            // already removed
+        }
+    }
+
+    private void restorePreviousThresholds() {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long[] previous = previousThresholds.get(memoryPool.getName());
+            if (previous == null || !memoryPool.isValid()) {
+                continue;
+            }
+            if (previous[0] >= 0) {
+                memoryPool.setUsageThreshold(previous[0]);
+            }
+            if (previous[1] >= 0) {
+                memoryPool.setCollectionUsageThreshold(previous[1]);
+            }
+        }
+        previousThresholds.clear();
+    }
+
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Checks absolute thresholds before anything is changed, the jvm rejects those above the max size.
+     */
+    private static void checkThresholds(MemoryPoolMXBean memoryPool, long[] thresholds) {
+        if (thresholds == null || !memoryPool.isValid()) {
+            return;
+        }
+        long max = memoryPool.getUsage().getMax();
+        if (max < 0) {
+            return;
+        }
+        if (memoryPool.isUsageThresholdSupported() && thresholds[0] > max
+                || memoryPool.isCollectionUsageThresholdSupported() && thresholds[1] > max) {
+            throw new IllegalArgumentException("thresholds of " + memoryPool.getName()
+                    + " exceed the max size of the pool: " + max);
+        }
+    }
+
+    private void apply(MemoryPoolMXBean memoryPool) {
+        if (!memoryPool.isValid()) {
+            return;
+        }
+        String name = memoryPool.getName();
+        long[] thresholds = poolThresholds.get(name);
+        long max = memoryPool.getUsage().getMax();
+        long usageThreshold;
+        long collectionUsageThreshold;
+        if (thresholds != null) {
+            usageThreshold = thresholds[0];
+            collectionUsageThreshold = thresholds[1];
+        } else if (max > 0) {
+            usageThreshold = (long) (max * usageFraction);
+            collectionUsageThreshold = (long) (max * collectionUsageFraction);
+        } else {
+            // no max size and no absolute threshold
+            return;
+        }
+        long[] previous = previousThresholds.get(name);
+        if (previous == null) {
+            previous = new long[]{-1, -1};
+            previousThresholds.put(name, previous);
+            if (memoryPool.isUsageThresholdSupported()) {
+                previous[0] = memoryPool.getUsageThreshold();
+            }
+            if (memoryPool.isCollectionUsageThresholdSupported()) {
+                previous[1] = memoryPool.getCollectionUsageThreshold();
+            }
+        }
+        if (memoryPool.isUsageThresholdSupported()) {
+            memoryPool.setUsageThreshold(usageThreshold);
+        }
+        if (memoryPool.isCollectionUsageThresholdSupported()) {
+            memoryPool.setCollectionUsageThreshold(collectionUsageThreshold);
+        }
+    }
+
+    private void handleNotification(Notification notification) {
+        Kind kind;
+        if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            kind = Kind.USAGE;
+        } else if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            kind = Kind.COLLECTION_USAGE;
+        } else {
+            return;
+        }
+        MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification.getUserData());
+        for (Listener listener : listeners) {
+            // an exception would escape to the notification dispatcher and skip the other listeners
+            try {
+                listener.thresholdExceeded(kind, info.getPoolName(), info.getUsage(), info.getCount());
+            } catch (RuntimeException e) {
+                lastFailure = e;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[usageFraction=" + usageFraction + ", collectionUsageFraction="
+                + collectionUsageFraction + ", listeners=" + listeners.size() + ']';
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Reads the Native Memory Tracking summary of the jvm through the DiagnosticCommand MBean, which
+ * is what {@code jcmd <pid> VM.native_memory summary} does, and parses it into a
+ * {@link NativeMemorySummary}.
+ * <p>
+ * Native Memory Tracking must be enabled at startup with {@code -XX:NativeMemoryTracking=summary}
+ * (or {@code detail}), it costs some memory and a little cpu. Once enabled a summary is cheap
+ * enough to be sampled periodically. The baseline and the diffs are kept here rather than in the
+ * jvm, so that several collectors do not reset the baseline of each other.
+ */
+public class NativeMemoryCollector {
+    private static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+    private static final String NOT_ENABLED = "Native memory tracking is not enabled";
+
+    private NativeMemorySummary baseline;
+
+    public NativeMemoryCollector() {
+        super();
+    }
+
+    /**
+     * @return whether the jvm has the DiagnosticCommand MBean (hotspot 8+)
+     */
+    public static boolean isSupported() {
+        try {
+            return ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(DIAGNOSTIC_COMMAND));
+        } catch (JMException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the summary, or null if Native Memory Tracking is not enabled or not supported
+     */
+    public NativeMemorySummary collect() {
+        if (!isSupported()) {
+            return null;
+        }
+        String output;
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            output = (String) mbeanServer.invoke(new ObjectName(DIAGNOSTIC_COMMAND), "vmNativeMemory",
+                    new Object[]{new String[]{"summary"}}, new String[]{String[].class.getName()});
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+        if (output == null || output.contains(NOT_ENABLED)) {
+            return null;
+        }
+        try {
+            return parse(new StringReader(output), System.currentTimeMillis());
+        } catch (IOException e) {
+            // not with a StringReader
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Collects a summary and keeps it as the baseline of {@link #diffFromBaseline()}.
+     *
+     * @return the baseline, or null if Native Memory Tracking is not enabled
+     */
+    public synchronized NativeMemorySummary baseline() {
+        baseline = collect();
+        return baseline;
+    }
+
+    /**
+     * @return the baseline, or null if none
+     */
+    public synchronized NativeMemorySummary getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Collects a summary and compares it with the baseline.
+     *
+     * @return the changes since the baseline, or null if Native Memory Tracking is not enabled
+     * @throws IllegalStateException if there is no baseline
+     */
+    public synchronized NativeMemoryDiff diffFromBaseline() {
+        if (baseline == null) {
+            throw new IllegalStateException("no baseline");
+        }
+        NativeMemorySummary current = collect();
+        return current == null ? null : current.diff(baseline);
+    }
+
+    /**
+     * Parses a summary line by line:
+     * <pre>
+     * Total: reserved=2939432KB, committed=124868KB
+     * -                 Java Heap (reserved=1538048KB, committed=96256KB)
+     *                             (mmap: reserved=1538048KB, committed=96256KB)
+     * -                     Class (reserved=1048719KB, committed=527KB)
+     *                             (malloc=143KB #2034)
+     * </pre>
+     */
+    static NativeMemorySummary parse(Reader reader, long timeMillis) throws IOException {
+        BufferedReader bufferedReader = reader instanceof BufferedReader ? (BufferedReader) reader
+                : new BufferedReader(reader);
+        long totalReserved = -1;
+        long totalCommitted = -1;
+        Map<String, NativeMemorySummary.Category> categories = new LinkedHashMap<>();
+        NativeMemorySummary.Category category = null;
+        String line = bufferedReader.readLine();
+        while (line != null) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("Total:")) {
+                totalReserved = readSize(trimmed, "reserved=");
+                totalCommitted = readSize(trimmed, "committed=");
+            } else if (trimmed.startsWith("-")) {
+                int parenthesis = trimmed.indexOf('(');
+                if (parenthesis > 0) {
+                    category = new NativeMemorySummary.Category(trimmed.substring(1, parenthesis).trim());
+                    category.setReserved(readSize(trimmed, "reserved="));
+                    category.setCommitted(readSize(trimmed, "committed="));
+                    categories.put(category.getName(), category);
+                }
+            } else if (category != null && trimmed.startsWith("(")) {
+                if (trimmed.startsWith("(malloc=")) {
+                    category.setMalloc(readSize(trimmed, "malloc="));
+                } else if (trimmed.startsWith("(arena=")) {
+                    category.setArena(readSize(trimmed, "arena="));
+                } else if (trimmed.startsWith("(mmap:")) {
+                    category.setMmap(readSize(trimmed, "reserved="), readSize(trimmed, "committed="));
+                }
+            } else if (trimmed.isEmpty()) {
+                category = null;
+            }
+            line = bufferedReader.readLine();
+        }
+        return new NativeMemorySummary(timeMillis, totalReserved, totalCommitted, categories);
+    }
+
+    /**
+     * @return the size following the key, such as "reserved=1538048KB", in bytes, or -1 if not found
+     */
+    static long readSize(String line, String key) {
+        int start = line.indexOf(key);
+        if (start < 0) {
+            return -1;
+        }
+        int i = start + key.length();
+        long value = 0;
+        boolean digits = false;
+        while (i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+            value = value * 10 + line.charAt(i) - '0';
+            digits = true;
+            i++;
+        }
+        if (!digits) {
+            return -1;
+        }
+        // the scale of jcmd: B, KB (default), MB or GB
+        if (line.startsWith("KB", i)) {
+            return value * 1024;
+        } else if (line.startsWith("MB", i)) {
+            return value * 1024 * 1024;
+        } else if (line.startsWith("GB", i)) {
+            return value * 1024 * 1024 * 1024;
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[baseline=" + baseline + ']';
+    }
+}
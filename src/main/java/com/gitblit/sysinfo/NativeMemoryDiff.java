@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Changes of the native memory between two {@link NativeMemorySummary}, by category. A category
+ * missing from one of the summaries counts as zero there.
+ */
+public class NativeMemoryDiff implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long intervalMillis;
+    private final long totalReservedDelta;
+    private final long totalCommittedDelta;
+    private final List<CategoryDelta> categoryDeltas;
+
+    /**
+     * The change of one category.
+     */
+    public static final class CategoryDelta implements Serializable, Comparable<CategoryDelta> {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final long reservedDelta;
+        private final long committedDelta;
+        private final long committed;
+
+        CategoryDelta(String name, long reservedDelta, long committedDelta, long committed) {
+            this.name = name;
+            this.reservedDelta = reservedDelta;
+            this.committedDelta = committedDelta;
+            this.committed = committed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getReservedDelta() {
+            return reservedDelta;
+        }
+
+        public long getCommittedDelta() {
+            return committedDelta;
+        }
+
+        /**
+         * @return the committed memory in the later summary
+         */
+        public long getCommitted() {
+            return committed;
+        }
+
+        /**
+         * Orders by decreasing committed growth.
+         */
+        @Override
+        public int compareTo(CategoryDelta o) {
+            return Long.compare(o.committedDelta, committedDelta);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[name=" + name + ", reservedDelta=" + reservedDelta
+                    + ", committedDelta=" + committedDelta + ']';
+        }
+    }
+
+    NativeMemoryDiff(NativeMemorySummary baseline, NativeMemorySummary current) {
+        super();
+        this.intervalMillis = current.getTimeMillis() - baseline.getTimeMillis();
+        this.totalReservedDelta = current.getTotalReserved() - baseline.getTotalReserved();
+        this.totalCommittedDelta = current.getTotalCommitted() - baseline.getTotalCommitted();
+        Set<String> names = new LinkedHashSet<>(current.getCategories().keySet());
+        names.addAll(baseline.getCategories().keySet());
+        List<CategoryDelta> deltas = new ArrayList<>(names.size());
+        for (String name : names) {
+            NativeMemorySummary.Category before = baseline.getCategory(name);
+            NativeMemorySummary.Category after = current.getCategory(name);
+            long committed = committed(after);
+            deltas.add(new CategoryDelta(name, reserved(after) - reserved(before), committed - committed(before),
+                    committed));
+        }
+        Collections.sort(deltas);
+        this.categoryDeltas = Collections.unmodifiableList(deltas);
+    }
+
+    private static long reserved(NativeMemorySummary.Category category) {
+        return category == null ? 0 : Math.max(0, category.getReserved());
+    }
+
+    private static long committed(NativeMemorySummary.Category category) {
+        return category == null ? 0 : Math.max(0, category.getCommitted());
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getTotalReservedDelta() {
+        return totalReservedDelta;
+    }
+
+    public long getTotalCommittedDelta() {
+        return totalCommittedDelta;
+    }
+
+    /**
+     * @return the changes of each category, by decreasing committed growth
+     */
+    public List<CategoryDelta> getCategoryDeltas() {
+        return categoryDeltas;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[intervalMillis=" + intervalMillis + ", totalCommittedDelta="
+                + totalCommittedDelta + ", categoryDeltas=" + categoryDeltas + ']';
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Native memory of the jvm by category (Java Heap, Class, Thread, Code, GC, Internal, Symbol...),
+ * parsed from the output of the Native Memory Tracking summary. Values are in bytes, -1 if not
+ * reported.
+ */
+public class NativeMemorySummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long timeMillis;
+    private final long totalReserved;
+    private final long totalCommitted;
+    private final Map<String, Category> categories;
+
+    /**
+     * The memory of one category, and how it is allocated.
+     */
+    public static final class Category implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private long reserved = -1;
+        private long committed = -1;
+        private long malloc = -1;
+        private long arena = -1;
+        private long mmapReserved = -1;
+        private long mmapCommitted = -1;
+
+        Category(String name) {
+            this.name = name;
+        }
+
+        void setReserved(long reserved) {
+            this.reserved = reserved;
+        }
+
+        void setCommitted(long committed) {
+            this.committed = committed;
+        }
+
+        void setMalloc(long malloc) {
+            this.malloc = malloc;
+        }
+
+        void setArena(long arena) {
+            this.arena = arena;
+        }
+
+        void setMmap(long mmapReserved, long mmapCommitted) {
+            this.mmapReserved = mmapReserved;
+            this.mmapCommitted = mmapCommitted;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getReserved() {
+            return reserved;
+        }
+
+        public long getCommitted() {
+            return committed;
+        }
+
+        /**
+         * @return the memory allocated with malloc
+         */
+        public long getMalloc() {
+            return malloc;
+        }
+
+        /**
+         * @return the memory of the arenas (compiler, symbols...)
+         */
+        public long getArena() {
+            return arena;
+        }
+
+        public long getMmapReserved() {
+            return mmapReserved;
+        }
+
+        public long getMmapCommitted() {
+            return mmapCommitted;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[name=" + name + ", reserved=" + reserved + ", committed="
+                    + committed + ']';
+        }
+    }
+
+    NativeMemorySummary(long timeMillis, long totalReserved, long totalCommitted, Map<String, Category> categories) {
+        super();
+        this.timeMillis = timeMillis;
+        this.totalReserved = totalReserved;
+        this.totalCommitted = totalCommitted;
+        this.categories = categories;
+    }
+
+    /**
+     * @return the time of the summary in milliseconds since the epoch
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getTotalReserved() {
+        return totalReserved;
+    }
+
+    /**
+     * @return the committed memory of all categories, the part of the rss known to the jvm
+     */
+    public long getTotalCommitted() {
+        return totalCommitted;
+    }
+
+    /**
+     * @return the categories by name, in the order of the summary
+     */
+    public Map<String, Category> getCategories() {
+        return Collections.unmodifiableMap(categories);
+    }
+
+    /**
+     * @return the category, or null if not in the summary (categories under 1KB are omitted)
+     */
+    public Category getCategory(String name) {
+        return categories.get(name);
+    }
+
+    /**
+     * @return the changes from {@code baseline} to this summary
+     */
+    public NativeMemoryDiff diff(NativeMemorySummary baseline) {
+        return new NativeMemoryDiff(baseline, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[totalReserved=" + totalReserved + ", totalCommitted=" + totalCommitted
+                + ", categories=" + categories.size() + ']';
+    }
+}
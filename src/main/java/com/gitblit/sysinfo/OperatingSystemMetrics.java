@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+
+/**
+ * Reads the counters of the platform {@link OperatingSystemMXBean} which are not part of
+ * the java.lang.management API.
+ * <p>
+ * The way to read each counter is resolved once: direct calls when the bean implements
+ * com.sun.management.OperatingSystemMXBean, cached method handles otherwise. Unsupported
+ * counters read as -1.
+ */
+public final class OperatingSystemMetrics {
+
+    public enum Counter {
+        /** cpu time of the process in nanoseconds */
+        PROCESS_CPU_TIME("getProcessCpuTime"),
+        COMMITTED_VIRTUAL_MEMORY_SIZE("getCommittedVirtualMemorySize"),
+        FREE_PHYSICAL_MEMORY_SIZE("getFreePhysicalMemorySize"),
+        TOTAL_PHYSICAL_MEMORY_SIZE("getTotalPhysicalMemorySize"),
+        FREE_SWAP_SPACE_SIZE("getFreeSwapSpaceSize"),
+        TOTAL_SWAP_SPACE_SIZE("getTotalSwapSpaceSize"),
+        /** unix only */
+        OPEN_FILE_DESCRIPTOR_COUNT("getOpenFileDescriptorCount"),
+        /** unix only */
+        MAX_FILE_DESCRIPTOR_COUNT("getMaxFileDescriptorCount");
+
+        private final String methodName;
+
+        Counter(String methodName) {
+            this.methodName = methodName;
+        }
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final Accessor ACCESSOR = createAccessor(ManagementFactory.getOperatingSystemMXBean());
+
+    private OperatingSystemMetrics() {
+        super();
+    }
+
+    private interface Accessor {
+        boolean isSupported(Counter counter);
+
+        long get(Counter counter);
+    }
+
+    public static boolean isSupported(Counter counter) {
+        return ACCESSOR.isSupported(counter);
+    }
+
+    /**
+     * @return the value of the counter, or -1 if not supported by the jvm or the os
+     */
+    public static long get(Counter counter) {
+        return ACCESSOR.get(counter);
+    }
+
+    /**
+     * Reads all counters in one pass into {@code values}, indexed by {@link Counter#ordinal()}.
+     * The array may be reused between calls.
+     */
+    public static void readAll(long[] values) {
+        if (values.length < COUNTERS.length) {
+            throw new IllegalArgumentException("values.length must be at least " + COUNTERS.length);
+        }
+        for (Counter counter : COUNTERS) {
+            values[counter.ordinal()] = ACCESSOR.get(counter);
+        }
+    }
+
+    /**
+     * @return a new array sized for {@link #readAll(long[])}
+     */
+    public static long[] newValues() {
+        return new long[COUNTERS.length];
+    }
+
+    private static Accessor createAccessor(OperatingSystemMXBean operatingSystem) {
+        if (isClassAvailable("com.sun.management.OperatingSystemMXBean")) {
+            Accessor accessor = SunAccessor.create(operatingSystem);
+            if (accessor != null) {
+                return accessor;
+            }
+        }
+        return new MethodHandleAccessor(operatingSystem);
+    }
+
+    static boolean isClassAvailable(String className) {
+        try {
+            Class.forName(className, false, OperatingSystemMetrics.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Direct calls, in its own class so that com.sun.management is only linked when it exists.
+     */
+    private static final class SunAccessor implements Accessor {
+        private final com.sun.management.OperatingSystemMXBean operatingSystem;
+        private final com.sun.management.UnixOperatingSystemMXBean unixOperatingSystem;
+
+        private SunAccessor(com.sun.management.OperatingSystemMXBean operatingSystem) {
+            this.operatingSystem = operatingSystem;
+            if (operatingSystem instanceof com.sun.management.UnixOperatingSystemMXBean) {
+                this.unixOperatingSystem = (com.sun.management.UnixOperatingSystemMXBean) operatingSystem;
+            } else {
+                this.unixOperatingSystem = null;
+            }
+        }
+
+        static Accessor create(OperatingSystemMXBean operatingSystem) {
+            if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean) {
+                return new SunAccessor((com.sun.management.OperatingSystemMXBean) operatingSystem);
+            }
+            return null;
+        }
+
+        @Override
+        public boolean isSupported(Counter counter) {
+            switch (counter) {
+                case OPEN_FILE_DESCRIPTOR_COUNT:
+                case MAX_FILE_DESCRIPTOR_COUNT:
+                    return unixOperatingSystem != null;
+                default:
+                    return true;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public long get(Counter counter) {
+            switch (counter) {
+                case PROCESS_CPU_TIME:
+                    return operatingSystem.getProcessCpuTime();
+                case COMMITTED_VIRTUAL_MEMORY_SIZE:
+                    return operatingSystem.getCommittedVirtualMemorySize();
+                case FREE_PHYSICAL_MEMORY_SIZE:
+                    return operatingSystem.getFreePhysicalMemorySize();
+                case TOTAL_PHYSICAL_MEMORY_SIZE:
+                    return operatingSystem.getTotalPhysicalMemorySize();
+                case FREE_SWAP_SPACE_SIZE:
+                    return operatingSystem.getFreeSwapSpaceSize();
+                case TOTAL_SWAP_SPACE_SIZE:
+                    return operatingSystem.getTotalSwapSpaceSize();
+                case OPEN_FILE_DESCRIPTOR_COUNT:
+                    if (unixOperatingSystem == null) {
+                        return -1;
+                    }
+                    try {
+                        return unixOperatingSystem.getOpenFileDescriptorCount();
+                    } catch (Error e) {
+                        // issue 16 (using jsvc on ubuntu or debian)
+                        return -1;
+                    }
+                case MAX_FILE_DESCRIPTOR_COUNT:
+                    if (unixOperatingSystem == null) {
+                        return -1;
+                    }
+                    try {
+                        return unixOperatingSystem.getMaxFileDescriptorCount();
+                    } catch (Error e) {
+                        // issue 16 (using jsvc on ubuntu or debian)
+                        return -1;
+                    }
+                default:
+                    throw new IllegalArgumentException(counter.name());
+            }
+        }
+    }
+
+    /**
+     * Method handles bound to the bean, for jvms without com.sun.management.
+     */
+    private static final class MethodHandleAccessor implements Accessor {
+        private static final MethodType LONG_GETTER = MethodType.methodType(long.class);
+        private final MethodHandle[] handles = new MethodHandle[COUNTERS.length];
+
+        MethodHandleAccessor(OperatingSystemMXBean operatingSystem) {
+            for (Counter counter : COUNTERS) {
+                handles[counter.ordinal()] = findHandle(operatingSystem, counter.methodName);
+            }
+        }
+
+        private static MethodHandle findHandle(OperatingSystemMXBean operatingSystem, String methodName) {
+            // prefer a public interface, the implementation class is not always accessible
+            Deque<Class<?>> types = new ArrayDeque<>();
+            types.add(operatingSystem.getClass());
+            while (!types.isEmpty()) {
+                Class<?> type = types.poll();
+                if (type.isInterface() && Modifier.isPublic(type.getModifiers())) {
+                    try {
+                        Method method = type.getMethod(methodName);
+                        return bind(MethodHandles.publicLookup().unreflect(method), operatingSystem);
+                    } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                        // try next type
+                    }
+                }
+                if (type.getSuperclass() != null) {
+                    types.add(type.getSuperclass());
+                }
+                Collections.addAll(types, type.getInterfaces());
+            }
+            try {
+                Method method = operatingSystem.getClass().getMethod(methodName);
+                method.setAccessible(true);
+                return bind(MethodHandles.lookup().unreflect(method), operatingSystem);
+            } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        private static MethodHandle bind(MethodHandle handle, OperatingSystemMXBean operatingSystem) {
+            return handle.bindTo(operatingSystem).asType(LONG_GETTER);
+        }
+
+        @Override
+        public boolean isSupported(Counter counter) {
+            return handles[counter.ordinal()] != null;
+        }
+
+        @Override
+        public long get(Counter counter) {
+            MethodHandle handle = handles[counter.ordinal()];
+            if (handle == null) {
+                return -1;
+            }
+            try {
+                return (long) handle.invokeExact();
+            } catch (Error e) {
+                if (counter == Counter.OPEN_FILE_DESCRIPTOR_COUNT || counter == Counter.MAX_FILE_DESCRIPTOR_COUNT) {
+                    // issue 16 (using jsvc on ubuntu or debian)
+                    return -1;
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+}
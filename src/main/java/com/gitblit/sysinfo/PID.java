@@ -10,6 +10,9 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This code was extracted from JavaMelody and refactored.
@@ -18,6 +21,7 @@ import java.util.StringTokenizer;
  * @author James Moger
  */
 public final class PID {
+    private static final long PID_FROM_OS_TIMEOUT_SECONDS = 10;
 
     private PID() {
         super();
@@ -43,6 +47,13 @@ public final class PID {
     }
 
     static String getPIDFromOS() {
+        return getPIDFromOS(PID_FROM_OS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return PID of Java process, or the error when the command failed or did not end before the deadline
+     */
+    static String getPIDFromOS(long timeout, TimeUnit unit) {
         String pid;
         // following is not always reliable as is (for example, see issue 3 on solaris 10
         // or http://blog.igorminar.com/2007/03/how-java-application-can-discover-its.html)
@@ -50,7 +61,6 @@ public final class PID {
         // Author getpids.exe: Daniel Scheibli, http://www.scheibli.com/projects/getpids/index.html, licence GPL
         final String[] cmd;
         File tempFile = null;
-        Process process = null;
         try {
             try {
                 if (!System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("windows")) {
@@ -63,29 +73,33 @@ public final class PID {
                     pump(PID.class.getResourceAsStream("getpids.exe"), new FileOutputStream(tempFile), true, true);
                     cmd = new String[]{tempFile.getAbsolutePath()};
                 }
-                process = Runtime.getRuntime().exec(cmd);
                 final ByteArrayOutputStream bout = new ByteArrayOutputStream();
-                pump(process.getInputStream(), bout, false, true);
+                CommandResult<String> result = CommandRunner.execute(cmd, new CommandRunner.Collector<String>() {
+                    @Override
+                    public void collect(InputStream in) throws IOException {
+                        pump(in, bout, false, true);
+                    }
 
-                final StringTokenizer stok = new StringTokenizer(bout.toString());
+                    @Override
+                    public String getResult() {
+                        return bout.toString();
+                    }
+                }, timeout, unit).get();
+                if (!result.isComplete()) {
+                    throw new TimeoutException(cmd[0] + " did not end in " + timeout + ' ' + unit);
+                }
+
+                final StringTokenizer stok = new StringTokenizer(result.getValue());
                 stok.nextToken(); // this is pid of the process we spanned
                 pid = stok.nextToken();
-
-                process.waitFor();
             } finally {
-                if (process != null) {
-                    process.getInputStream().close();
-                    process.getOutputStream().close();
-                    process.getErrorStream().close();
-                    process.destroy();
-                }
                 if (tempFile != null && !tempFile.delete()) {
                     tempFile.deleteOnExit();
                 }
             }
-        } catch (InterruptedException e) {
-            pid = e.toString();
-        } catch (IOException e) {
+        } catch (ExecutionException e) {
+            pid = e.getCause().toString();
+        } catch (InterruptedException | TimeoutException | IOException e) {
             pid = e.toString();
         }
         return pid;
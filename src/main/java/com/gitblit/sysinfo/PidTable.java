@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from a pid to two long values, without boxing.
+ * Cleared and refilled in place from one sample to the next.
+ */
+final class PidTable {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] pids;
+    private long[] firstValues;
+    private long[] secondValues;
+    private int size;
+
+    PidTable(int expectedSize) {
+        super();
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        pids = new int[capacity];
+        Arrays.fill(pids, EMPTY);
+        firstValues = new long[capacity];
+        secondValues = new long[capacity];
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(pids, EMPTY);
+            size = 0;
+        }
+    }
+
+    void put(int pid, long first, long second) {
+        if ((size + 1) * 2 > pids.length) {
+            grow();
+        }
+        int slot = slot(pid);
+        if (pids[slot] == EMPTY) {
+            pids[slot] = pid;
+            size++;
+        }
+        firstValues[slot] = first;
+        secondValues[slot] = second;
+    }
+
+    /**
+     * @return the slot of the pid, or -1 if absent
+     */
+    int indexOf(int pid) {
+        int slot = slot(pid);
+        return pids[slot] == EMPTY ? -1 : slot;
+    }
+
+    long firstAt(int slot) {
+        return firstValues[slot];
+    }
+
+    long secondAt(int slot) {
+        return secondValues[slot];
+    }
+
+    private int slot(int pid) {
+        int mask = pids.length - 1;
+        int slot = mix(pid) & mask;
+        while (pids[slot] != EMPTY && pids[slot] != pid) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int pid) {
+        int h = pid * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        int[] oldPids = pids;
+        long[] oldFirstValues = firstValues;
+        long[] oldSecondValues = secondValues;
+        allocate(oldPids.length * 2);
+        for (int i = 0; i < oldPids.length; i++) {
+            if (oldPids[i] != EMPTY) {
+                put(oldPids[i], oldFirstValues[i], oldSecondValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds the {@link ProcessInfo} list of a Linux host by reading /proc/[pid]/stat,
+ * /proc/[pid]/status and /proc/[pid]/cmdline, without forking ps.
+ * <p>
+ * The values are computed like procps does for "ps waux": %cpu and %mem are truncated to one
+ * decimal, and the STAT flags are those of ps. The clock tick (USER_HZ) is assumed to be 100,
+ * which is its value on all the architectures supported by the jvm; the jvm has no portable way
+ * to read sysconf(_SC_CLK_TCK). Files are read with NIO into buffers reused for every process.
+ * Not thread-safe, use one collector per collection.
+ */
+final class ProcProcessCollector {
+    // USER_HZ, assumed: 100 on all the architectures supported by the jvm
+    private static final int CLOCK_TICKS_PER_SECOND = 100;
+    private static final Path PROC = Paths.get("/proc");
+    private static final Path PASSWD = Paths.get("/etc/passwd");
+
+    private final Path proc;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private final long[] fields = new long[22];
+    private final Map<Integer, String> userNames;
+    private final Map<String, String> cgroups = new HashMap<>();
+    private final long memTotalKb;
+    private final long bootTimeMillis;
+    private final double uptimeSeconds;
+    private final long now;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.ENGLISH);
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMMdd", Locale.ENGLISH);
+    private final SimpleDateFormat yearFormat = new SimpleDateFormat("yyyy", Locale.ENGLISH);
+    private final long startOfToday;
+    private final long startOfYear;
+
+    ProcProcessCollector() throws IOException {
+        this(PROC, PASSWD);
+    }
+
+    /**
+     * @param proc the procfs root, /proc except in tests
+     * @param passwd the user database, /etc/passwd except in tests
+     */
+    ProcProcessCollector(Path proc, Path passwd) throws IOException {
+        super();
+        this.proc = proc;
+        now = System.currentTimeMillis();
+        userNames = readUserNames(passwd);
+        memTotalKb = readMemTotalKb();
+        bootTimeMillis = readBootTimeMillis();
+        uptimeSeconds = readUptimeSeconds();
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        startOfToday = calendar.getTimeInMillis();
+        calendar.set(Calendar.DAY_OF_YEAR, 1);
+        startOfYear = calendar.getTimeInMillis();
+    }
+
+    static boolean isAvailable() {
+        return System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("linux")
+                && Files.isReadable(PROC.resolve("self").resolve("stat"));
+    }
+
+    /**
+     * @param selection processes to keep, or null for all the processes
+     */
+    List<ProcessInfo> collect(ProcessSelection selection) throws IOException {
+        List<ProcessInfo> processInfos = new ArrayList<>();
+        try (DirectoryStream<Path> pids = Files.newDirectoryStream(proc)) {
+            for (Path dir : pids) {
+                int pid = parsePid(dir.getFileName().toString());
+                if (pid < 0) {
+                    continue;
+                }
+                try {
+                    ProcessInfo processInfo = readProcess(dir, pid, selection);
+                    if (processInfo == null) {
+                        continue;
+                    }
+                    if (selection != null) {
+                        selection.offer(processInfo);
+                    } else {
+                        processInfos.add(processInfo);
+                    }
+                } catch (IOException e) {
+                    // the process has exited since the directory was listed
+                }
+            }
+        }
+        if (selection != null) {
+            return selection.getResult();
+        }
+        Collections.sort(processInfos);
+        return Collections.unmodifiableList(processInfos);
+    }
+
+    private static int parsePid(String name) {
+        int pid = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            pid = pid * 10 + c - '0';
+        }
+        return name.isEmpty() ? -1 : pid;
+    }
+
+    /**
+     * @return the process, or null if rejected by the selection or unreadable
+     */
+    private ProcessInfo readProcess(Path dir, int pid, ProcessSelection selection) throws IOException {
+        // /proc/[pid]/stat: pid (comm) state ppid pgrp session tty_nr tpgid flags ...
+        int length = read(dir.resolve("stat"));
+        byte[] bytes = buffer.array();
+        int commStart = indexOf(bytes, 0, length, (byte) '(') + 1;
+        int commEnd = lastIndexOf(bytes, length, (byte) ')');
+        if (commStart <= 0 || commEnd < commStart) {
+            return null;
+        }
+        String comm = new String(bytes, commStart, commEnd - commStart, StandardCharsets.UTF_8);
+        char state = (char) bytes[commEnd + 2];
+        parseFields(bytes, commEnd + 4, length, fields);
+        // fields are indexed from ppid (field 4 in proc(5)) on
+        int ppid = (int) fields[0];
+        int pgrp = (int) fields[1];
+        int session = (int) fields[2];
+        int ttyNr = (int) fields[3];
+        int tpgid = (int) fields[4];
+        long utime = fields[10];
+        long stime = fields[11];
+        long nice = fields[15];
+        long numThreads = fields[16];
+        long startTicks = fields[18];
+        // clamped once, so that the selection sees the reported value (ZGC reserves terabytes of address space)
+        int vszKb = (int) Math.min(fields[19] / 1024, Integer.MAX_VALUE);
+        long cpuTicks = utime + stime;
+        // like procps: per mille over the whole seconds elapsed since the start, truncated
+        long elapsedSeconds = (long) (uptimeSeconds - (double) startTicks / CLOCK_TICKS_PER_SECOND);
+        float cpuPercentage = elapsedSeconds > 0 ? cpuTicks * 1000 / CLOCK_TICKS_PER_SECOND / elapsedSeconds / 10f : 0f;
+        if (selection != null && !selection.acceptsValues(cpuPercentage, -1, vszKb, -1)) {
+            return null;
+        }
+
+        // /proc/[pid]/status for the effective uid and the resident set size
+        length = read(dir.resolve("status"));
+        bytes = buffer.array();
+        int uid = (int) statusValue(bytes, length, "Uid:", 1);
+        int rssKb = (int) Math.min(Math.max(0, statusValue(bytes, length, "VmRSS:", 0)), Integer.MAX_VALUE);
+        boolean locked = statusValue(bytes, length, "VmLck:", 0) > 0;
+        float memPercentage = memTotalKb > 0 ? rssKb * 1000L / memTotalKb / 10f : 0f;
+        String user = userNames.get(uid);
+        if (user == null) {
+            user = Integer.toString(uid);
+        }
+        if (selection != null && (!selection.acceptsUser(user)
+                || !selection.acceptsValues(cpuPercentage, memPercentage, vszKb, rssKb))) {
+            return null;
+        }
+
+        // /proc/[pid]/cmdline: NUL separated arguments, empty for kernel threads
+        length = read(dir.resolve("cmdline"));
+        bytes = buffer.array();
+        while (length > 0 && bytes[length - 1] == 0) {
+            length--;
+        }
+        String command;
+        if (length == 0) {
+            command = '[' + comm + ']';
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] == 0) {
+                    bytes[i] = ' ';
+                }
+            }
+            command = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        String cgroup = readCgroup(dir);
+        long startMillis = bootTimeMillis + startTicks * 1000 / CLOCK_TICKS_PER_SECOND;
+        String stat = buildStat(state, pid, session, pgrp, tpgid, nice, numThreads, locked);
+        return new ProcessInfo(user, pid, cpuPercentage, memPercentage, vszKb,
+                rssKb, buildTty(ttyNr), stat, formatStart(startMillis), formatCpuTime(cpuTicks), command,
+                cpuTicks * 1000 / CLOCK_TICKS_PER_SECOND, startMillis, ppid, cgroup);
+    }
+
+    /**
+     * Reads /proc/[pid]/cgroup ("hierarchy-id:controllers:path" lines) and keeps the path of the
+     * unified (v2) hierarchy, or else of the memory or cpu controller, or else of the first line.
+     */
+    private String readCgroup(Path dir) {
+        int length;
+        try {
+            length = read(dir.resolve("cgroup"));
+        } catch (IOException e) {
+            // kernel without cgroups
+            return null;
+        }
+        byte[] bytes = buffer.array();
+        int selectedStart = -1;
+        int selectedEnd = -1;
+        int selectedRank = Integer.MAX_VALUE;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = indexOf(bytes, lineStart, length, (byte) '\n');
+            if (lineEnd < 0) {
+                lineEnd = length;
+            }
+            int firstColon = indexOf(bytes, lineStart, lineEnd, (byte) ':');
+            int secondColon = firstColon < 0 ? -1 : indexOf(bytes, firstColon + 1, lineEnd, (byte) ':');
+            if (secondColon > 0) {
+                String controllers = new String(bytes, firstColon + 1, secondColon - firstColon - 1, StandardCharsets.US_ASCII);
+                int rank;
+                if (controllers.isEmpty()) {
+                    rank = 0;
+                } else if (hasController(controllers, "memory")) {
+                    rank = 1;
+                } else if (hasController(controllers, "cpu")) {
+                    rank = 2;
+                } else {
+                    rank = 3;
+                }
+                if (rank < selectedRank) {
+                    selectedRank = rank;
+                    selectedStart = secondColon + 1;
+                    selectedEnd = lineEnd;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (selectedStart < 0) {
+            return null;
+        }
+        String cgroup = new String(bytes, selectedStart, selectedEnd - selectedStart, StandardCharsets.UTF_8);
+        // many processes share a cgroup
+        String shared = cgroups.putIfAbsent(cgroup, cgroup);
+        return shared != null ? shared : cgroup;
+    }
+
+    private static boolean hasController(String controllers, String controller) {
+        return (',' + controllers + ',').contains(',' + controller + ',');
+    }
+
+    private static String buildStat(char state, int pid, int session, int pgrp, int tpgid, long nice, long numThreads,
+                                    boolean locked) {
+        StringBuilder sb = new StringBuilder(6);
+        sb.append(state);
+        if (nice < 0) {
+            sb.append('<');
+        } else if (nice > 0) {
+            sb.append('N');
+        }
+        if (locked) {
+            // pages locked in memory (VmLck)
+            sb.append('L');
+        }
+        if (pid == session) {
+            sb.append('s');
+        }
+        if (numThreads > 1) {
+            sb.append('l');
+        }
+        if (tpgid != -1 && tpgid == pgrp) {
+            sb.append('+');
+        }
+        return sb.toString();
+    }
+
+    private static String buildTty(int ttyNr) {
+        if (ttyNr == 0) {
+            return "?";
+        }
+        int major = (ttyNr >> 8) & 0xfff;
+        int minor = (ttyNr & 0xff) | ((ttyNr >> 12) & 0xfff00);
+        if (major >= 136 && major <= 143) {
+            return "pts/" + ((major - 136) * 256 + minor);
+        } else if (major == 4 && minor < 64) {
+            return "tty" + minor;
+        } else if (major == 4) {
+            return "ttyS" + (minor - 64);
+        }
+        return "?";
+    }
+
+    private String formatStart(long startMillis) {
+        Date date = new Date(startMillis);
+        if (startMillis >= startOfToday) {
+            return timeFormat.format(date);
+        } else if (startMillis >= startOfYear) {
+            return dateFormat.format(date);
+        }
+        return yearFormat.format(date);
+    }
+
+    private static String formatCpuTime(long cpuTicks) {
+        long seconds = cpuTicks / CLOCK_TICKS_PER_SECOND;
+        long minutes = seconds / 60;
+        seconds = seconds % 60;
+        return minutes + (seconds < 10 ? ":0" : ":") + seconds;
+    }
+
+    /**
+     * Reads a whole file into the shared buffer, growing it when needed.
+     *
+     * @return the number of bytes read
+     */
+    private int read(Path path) throws IOException {
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                if (channel.read(buffer) < 0) {
+                    return buffer.position();
+                }
+            }
+        }
+    }
+
+    private static void parseFields(byte[] bytes, int offset, int length, long[] fields) {
+        int field = 0;
+        int i = offset;
+        while (i < length && field < fields.length) {
+            while (i < length && bytes[i] == ' ') {
+                i++;
+            }
+            boolean negative = i < length && bytes[i] == '-';
+            if (negative) {
+                i++;
+            }
+            long value = 0;
+            while (i < length && bytes[i] >= '0' && bytes[i] <= '9') {
+                value = value * 10 + bytes[i] - '0';
+                i++;
+            }
+            while (i < length && bytes[i] != ' ') {
+                i++;
+            }
+            fields[field++] = negative ? -value : value;
+        }
+    }
+
+    /**
+     * @return the numeric value at {@code column} (0 based) on the line starting with {@code key}, or -1
+     */
+    private static long statusValue(byte[] bytes, int length, String key, int column) {
+        int lineStart = 0;
+        while (lineStart < length) {
+            if (startsWith(bytes, lineStart, length, key)) {
+                int i = lineStart + key.length();
+                for (int c = 0; c <= column; c++) {
+                    while (i < length && (bytes[i] == ' ' || bytes[i] == '\t')) {
+                        i++;
+                    }
+                    long value = 0;
+                    boolean digits = false;
+                    while (i < length && bytes[i] >= '0' && bytes[i] <= '9') {
+                        value = value * 10 + bytes[i] - '0';
+                        digits = true;
+                        i++;
+                    }
+                    if (c == column) {
+                        return digits ? value : -1;
+                    }
+                }
+                return -1;
+            }
+            int newLine = indexOf(bytes, lineStart, length, (byte) '\n');
+            if (newLine < 0) {
+                break;
+            }
+            lineStart = newLine + 1;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, int length, String prefix) {
+        if (offset + prefix.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int length, byte b) {
+        for (int i = from; i < length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, int length, byte b) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long readMemTotalKb() throws IOException {
+        int length = read(proc.resolve("meminfo"));
+        return statusValue(buffer.array(), length, "MemTotal:", 0);
+    }
+
+    private long readBootTimeMillis() throws IOException {
+        int length = read(proc.resolve("stat"));
+        long btime = statusValue(buffer.array(), length, "btime", 0);
+        if (btime >= 0) {
+            return btime * 1000;
+        }
+        return now - (long) (readUptimeSeconds() * 1000);
+    }
+
+    private double readUptimeSeconds() throws IOException {
+        int length = read(proc.resolve("uptime"));
+        String uptime = new String(buffer.array(), 0, length, StandardCharsets.US_ASCII).trim();
+        int space = uptime.indexOf(' ');
+        return Double.parseDouble(space < 0 ? uptime : uptime.substring(0, space));
+    }
+
+    private static Map<Integer, String> readUserNames(Path passwd) {
+        Map<Integer, String> names = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(passwd, StandardCharsets.UTF_8)) {
+                // name:password:uid:gid:...
+                String[] columns = line.split(":", 4);
+                if (columns.length >= 3) {
+                    try {
+                        names.putIfAbsent(Integer.parseInt(columns[2]), columns[0]);
+                    } catch (NumberFormatException e) {
+                        // ignore malformed line
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // users are then displayed by uid
+        }
+        return names;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Computes the current cpu usage of each process from two successive samples of the process list,
+ * instead of the lifetime average reported by ps.
+ * <p>
+ * The cumulative cpu time of each pid is kept from one sample to the next in a primitive pid table.
+ * A pid is only compared with its previous value if the start time of the process is unchanged,
+ * so that a pid reused by a new process is not mistaken for the old one. The start time is only known
+ * when the processes are read from /proc, not from the output of ps.
+ * <p>
+ * The processes are collected with a deadline: when ps or /proc does not answer in time, or fails,
+ * the sample is skipped and the previous one is kept.
+ */
+public class ProcessCpuSampler {
+
+    private static final long DEFAULT_TIMEOUT_SECONDS = 30;
+
+    private final Supplier<CompletableFuture<CommandResult<List<ProcessInfo>>>> collector;
+    private PidTable previous = new PidTable(1024);
+    private PidTable current = new PidTable(1024);
+    private long previousTimeMillis = -1;
+    private long previousNanos;
+    private List<ProcessCpuUsage> lastSample = Collections.emptyList();
+
+    public ProcessCpuSampler() {
+        this(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param timeout the maximum time of a collection of the processes
+     */
+    public ProcessCpuSampler(final long timeout, final TimeUnit unit) {
+        this(() -> ProcessInfo.buildProcessInfoListAsync(timeout, unit));
+    }
+
+    ProcessCpuSampler(Supplier<CompletableFuture<CommandResult<List<ProcessInfo>>>> collector) {
+        super();
+        this.collector = collector;
+    }
+
+    /**
+     * Collects the processes and computes their cpu usage since the previous successful call.
+     * On the first call, the interval cpu percentages are unknown (-1).
+     *
+     * @return the new sample, or the last one if the collection failed or was cut short by its deadline
+     */
+    public synchronized List<ProcessCpuUsage> sample() {
+        CommandResult<List<ProcessInfo>> result;
+        try {
+            result = collector.get().join();
+        } catch (CompletionException | CancellationException e) {
+            // ps failed to start, or too many previous collections are still blocked
+            return lastSample;
+        }
+        if (!result.isComplete()) {
+            // the missing processes would look like new ones at the next sample
+            return lastSample;
+        }
+        List<ProcessInfo> processInfos = result.getValue();
+        // the wall clock dates the processes started during the interval, the interval itself is monotonic
+        long now = System.currentTimeMillis();
+        long nanos = System.nanoTime();
+        long intervalMillis = previousTimeMillis < 0 ? -1 : (nanos - previousNanos) / 1000000;
+        List<ProcessCpuUsage> usages = new ArrayList<>(processInfos.size());
+        current.clear();
+        for (ProcessInfo processInfo : processInfos) {
+            long cpuTimeMillis = processInfo.getCpuTimeMillis();
+            long startKey = processInfo.getStartKey();
+            current.put(processInfo.getPid(), cpuTimeMillis, startKey);
+            float percentage = -1f;
+            if (intervalMillis > 0 && cpuTimeMillis >= 0) {
+                int slot = previous.indexOf(processInfo.getPid());
+                if (slot >= 0 && previous.secondAt(slot) == startKey && previous.firstAt(slot) >= 0) {
+                    long delta = Math.max(0, cpuTimeMillis - previous.firstAt(slot));
+                    percentage = 100f * delta / intervalMillis;
+                } else if (processInfo.getStartTimeMillis() >= previousTimeMillis) {
+                    // new process started during the interval
+                    percentage = 100f * cpuTimeMillis / intervalMillis;
+                }
+            }
+            usages.add(new ProcessCpuUsage(processInfo, percentage, intervalMillis));
+        }
+        PidTable swap = previous;
+        previous = current;
+        current = swap;
+        previousTimeMillis = now;
+        previousNanos = nanos;
+        lastSample = Collections.unmodifiableList(usages);
+        return lastSample;
+    }
+
+    /**
+     * @return the processes of the last sample, in pid order
+     */
+    public synchronized List<ProcessCpuUsage> getLastSample() {
+        return lastSample;
+    }
+
+    /**
+     * @return the {@code n} processes of the last sample with the highest interval cpu usage, by decreasing usage
+     */
+    public synchronized List<ProcessCpuUsage> getTopByCpu(int n) {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        // min-heap of the n best processes
+        PriorityQueue<ProcessCpuUsage> heap = new PriorityQueue<>(n, Collections.reverseOrder());
+        for (ProcessCpuUsage usage : lastSample) {
+            if (heap.size() < n) {
+                heap.add(usage);
+            } else if (usage.compareTo(heap.peek()) < 0) {
+                heap.poll();
+                heap.add(usage);
+            }
+        }
+        List<ProcessCpuUsage> result = new ArrayList<>(heap);
+        Collections.sort(result);
+        return result;
+    }
+}
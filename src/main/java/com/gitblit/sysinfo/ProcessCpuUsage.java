@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+
+/**
+ * A process with its cpu usage over the interval between two samples of a {@link ProcessCpuSampler}.
+ */
+public class ProcessCpuUsage implements Serializable, Comparable<ProcessCpuUsage> {
+    private static final long serialVersionUID = 1L;
+
+    private final ProcessInfo processInfo;
+    private final float intervalCpuPercentage;
+    private final long intervalMillis;
+
+    ProcessCpuUsage(ProcessInfo processInfo, float intervalCpuPercentage, long intervalMillis) {
+        super();
+        this.processInfo = processInfo;
+        this.intervalCpuPercentage = intervalCpuPercentage;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public ProcessInfo getProcessInfo() {
+        return processInfo;
+    }
+
+    public int getPid() {
+        return processInfo.getPid();
+    }
+
+    /**
+     * @return the cpu used during the interval in percent of one cpu (may exceed 100 on multi-core
+     * hosts), or -1 if unknown because the process was not in the previous sample
+     */
+    public float getIntervalCpuPercentage() {
+        return intervalCpuPercentage;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Orders by decreasing interval cpu percentage.
+     */
+    @Override
+    public int compareTo(ProcessCpuUsage o) {
+        int result = Float.compare(o.intervalCpuPercentage, intervalCpuPercentage);
+        return result != 0 ? result : processInfo.compareTo(o.processInfo);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[pid=" + getPid() + ", intervalCpuPercentage="
+                + getIntervalCpuPercentage() + ", command=" + processInfo.getCommand() + ']';
+    }
+}
@@ -24,8 +24,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This code was extracted from JavaMelody and refactored.
@@ -35,8 +35,6 @@ import java.util.regex.Pattern;
  */
 public final class ProcessInfo implements Serializable, Comparable<ProcessInfo> {
     private static final long serialVersionUID = 2163916067335213382L;
-    private static final Pattern WINDOWS_STATE_PATTERN = Pattern.compile("................");
-    private static final Pattern WINDOWS_CPU_TIME_PATTERN = Pattern.compile("[0-9:]*");
 
     private final String user;
     private final int pid;
@@ -54,55 +52,85 @@ public final class ProcessInfo implements Serializable, Comparable<ProcessInfo>
     private final String start;
     private final String cpuTime;
     private final String command;
+    private final long cpuTimeMillis;
+    private final long startTimeMillis;
+    private final int ppid;
+    private final String cgroup;
 
-    ProcessInfo(Scanner sc, boolean windows, boolean macOrAix) {
+    ProcessInfo(String user, int pid, float cpuPercentage, float memPercentage, int vsz, int rss, String tty,
+                String stat, String start, String cpuTime, String command) {
+        this(user, pid, cpuPercentage, memPercentage, vsz, rss, tty, stat, start, cpuTime, command,
+                parseCpuTimeMillis(cpuTime), -1, -1, null);
+    }
+
+    ProcessInfo(String user, int pid, float cpuPercentage, float memPercentage, int vsz, int rss, String tty,
+                String stat, String start, String cpuTime, String command, long cpuTimeMillis, long startTimeMillis,
+                int ppid, String cgroup) {
         super();
-        if (windows) {
-            StringBuilder imageNameBuilder = new StringBuilder(sc.next());
-            while (!sc.hasNextInt()) {
-                imageNameBuilder.append(' ').append(sc.next());
-            }
-            pid = sc.nextInt();
-            if ("Console".equals(sc.next())) {
-                // ce if est nécessaire si windows server 2003 mais sans connexion à distance ouverte
-                // (comme tasklist.txt dans resources de test,
-                // car parfois "Console" est présent mais parfois non)
-                sc.next();
-            }
-            String memory = sc.next();
-            cpuPercentage = -1;
-            memPercentage = -1;
-            vsz = Integer.parseInt(memory.replace(".", "").replace(",", "").replace("ÿ", ""));
-            rss = -1;
-            tty = null;
-            sc.next();
-            sc.skip(WINDOWS_STATE_PATTERN);
-            stat = null;
-            StringBuilder userBuilder = new StringBuilder(sc.next());
-            while (!sc.hasNext(WINDOWS_CPU_TIME_PATTERN)) {
-                userBuilder.append(' ').append(sc.next());
-            }
-            this.user = userBuilder.toString();
-            start = null;
-            cpuTime = sc.next();
-            command = imageNameBuilder.append("   (").append(sc.nextLine().trim()).append(')').toString();
-        } else {
-            user = sc.next();
-            pid = sc.nextInt();
-            cpuPercentage = Float.parseFloat(sc.next().replace(",", "."));
-            memPercentage = Float.parseFloat(sc.next().replace(",", "."));
-            vsz = sc.nextInt();
-            rss = sc.nextInt();
-            tty = sc.next();
-            stat = sc.next();
-            if (macOrAix && sc.hasNextInt()) {
-                start = sc.next() + ' ' + sc.next();
+        this.user = user;
+        this.pid = pid;
+        this.cpuPercentage = cpuPercentage;
+        this.memPercentage = memPercentage;
+        this.vsz = vsz;
+        this.rss = rss;
+        this.tty = tty;
+        this.stat = stat;
+        this.start = start;
+        this.cpuTime = cpuTime;
+        this.command = command;
+        this.cpuTimeMillis = cpuTimeMillis;
+        this.startTimeMillis = startTimeMillis;
+        this.ppid = ppid;
+        this.cgroup = cgroup;
+    }
+
+    /**
+     * Parses the cumulative cpu time displayed by ps or tasklist: "M:SS", "M:SS.ss", "H:MM:SS" or "D-HH:MM:SS".
+     *
+     * @return the cpu time in milliseconds, or -1 if the format is unknown
+     */
+    static long parseCpuTimeMillis(String cpuTime) {
+        if (cpuTime == null || cpuTime.isEmpty()) {
+            return -1;
+        }
+        long days = 0;
+        long seconds = 0;
+        long value = 0;
+        long fraction = 0;
+        long fractionScale = 1;
+        boolean inFraction = false;
+        boolean digits = false;
+        for (int i = 0; i < cpuTime.length(); i++) {
+            char c = cpuTime.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (inFraction) {
+                    if (fractionScale < 1000) {
+                        fraction = fraction * 10 + c - '0';
+                        fractionScale *= 10;
+                    }
+                } else {
+                    value = value * 10 + c - '0';
+                }
+                digits = true;
+            } else if (c == ':' && !inFraction && digits) {
+                seconds = (seconds + value) * 60;
+                value = 0;
+                digits = false;
+            } else if (c == '-' && days == 0 && seconds == 0 && digits) {
+                days = value;
+                value = 0;
+                digits = false;
+            } else if ((c == '.' || c == ',') && !inFraction && digits) {
+                inFraction = true;
             } else {
-                start = sc.next();
+                return -1;
             }
-            cpuTime = sc.next();
-            command = sc.nextLine();
         }
+        if (!digits) {
+            return -1;
+        }
+        seconds += value + days * 24 * 3600;
+        return seconds * 1000 + fraction * 1000 / fractionScale;
     }
 
     public String getUser() {
@@ -149,12 +177,62 @@ public final class ProcessInfo implements Serializable, Comparable<ProcessInfo>
         return command;
     }
 
+    /**
+     * @return the cumulative cpu time in milliseconds, or -1 if unknown
+     */
+    public long getCpuTimeMillis() {
+        return cpuTimeMillis;
+    }
+
+    /**
+     * @return the start time of the process in milliseconds since the epoch, or -1 if unknown
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * Identifies the process together with its pid, changes when the pid is reused by a new process.
+     * <p>
+     * Only known when read from /proc: the start column of ps changes its format with the age of the
+     * process ("09:14", then "Oct12", then "2025"), so the key is 0 and a reused pid is not detected.
+     */
+    long getStartKey() {
+        return startTimeMillis >= 0 ? startTimeMillis : 0;
+    }
+
+    /**
+     * @return the pid of the parent process, or -1 if unknown
+     */
+    public int getPpid() {
+        return ppid;
+    }
+
+    /**
+     * @return the cgroup of the process (the unified hierarchy, or else the memory or cpu controller), or null if unknown
+     */
+    public String getCgroup() {
+        return cgroup;
+    }
+
     @Override
     public int compareTo(ProcessInfo o) {
         return Integer.compare(pid, o.pid);
     }
 
     public static List<ProcessInfo> buildProcessInfoList() {
+        return buildProcessInfoList((ProcessSelection) null);
+    }
+
+    /**
+     * Collects only the processes selected by the query. The criteria are evaluated while
+     * parsing, so the rejected processes are never built.
+     */
+    public static List<ProcessInfo> buildProcessInfoList(ProcessQuery query) {
+        return buildProcessInfoList(new ProcessSelection(query));
+    }
+
+    private static List<ProcessInfo> buildProcessInfoList(ProcessSelection selection) {
         Process process = null;
         try {
             // pour nodes Jenkins, on évalue ces propriétés à chaque fois sans utiliser de constantes
@@ -162,6 +240,10 @@ public final class ProcessInfo implements Serializable, Comparable<ProcessInfo>
             boolean windows = osName.contains("windows");
             boolean mac = osName.contains("mac");
             boolean aix = osName.contains("aix");
+            if (!windows && !mac && !aix && ProcProcessCollector.isAvailable()) {
+                // on linux, /proc is read directly rather than forking ps
+                return new ProcProcessCollector().collect(selection);
+            }
             if (windows) {
                 process = Runtime.getRuntime().exec(new String[]{"cmd", "/c", "tasklist /V"});
             } else if (mac || aix) {
@@ -172,7 +254,7 @@ public final class ProcessInfo implements Serializable, Comparable<ProcessInfo>
                 // (http://mindprod.com/jgloss/properties.html) qui acceptent la commande ps
                 process = Runtime.getRuntime().exec(new String[]{"/bin/sh", "-c", "ps wauxf"});
             }
-            return buildProcessInfoList(process.getInputStream(), windows, mac || aix);
+            return buildProcessInfoList(process.getInputStream(), windows, mac || aix, selection);
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
@@ -190,26 +272,79 @@ public final class ProcessInfo implements Serializable, Comparable<ProcessInfo>
         }
     }
 
-    static List<ProcessInfo> buildProcessInfoList(InputStream in, boolean windows, boolean macOrAix) {
-        String charset;
-        if (windows) {
-            charset = "Cp1252";
-        } else {
-            charset = "UTF-8";
+    /**
+     * Collects the processes without blocking the caller. When the deadline is reached, or when
+     * the future is cancelled, ps or tasklist is killed and the future completes with the
+     * processes read so far. It fails with a {@link java.util.concurrent.RejectedExecutionException}
+     * when too many previous collections are still blocked.
+     */
+    public static CompletableFuture<CommandResult<List<ProcessInfo>>> buildProcessInfoListAsync(long timeout,
+                                                                                               TimeUnit unit) {
+        return buildProcessInfoListAsync(new ProcessQuery(), timeout, unit);
+    }
+
+    /**
+     * Collects the processes selected by the query without blocking the caller, see
+     * {@link #buildProcessInfoListAsync(long, TimeUnit)}.
+     */
+    public static CompletableFuture<CommandResult<List<ProcessInfo>>> buildProcessInfoListAsync(ProcessQuery query,
+                                                                                               long timeout,
+                                                                                               TimeUnit unit) {
+        final ProcessSelection selection = new ProcessSelection(query);
+        String osName = System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
+        final boolean windows = osName.contains("windows");
+        final boolean macOrAix = osName.contains("mac") || osName.contains("aix");
+        CommandRunner.Collector<List<ProcessInfo>> collector = new CommandRunner.Collector<List<ProcessInfo>>() {
+            @Override
+            public void collect(InputStream in) throws IOException {
+                if (in == null) {
+                    new ProcProcessCollector().collect(selection);
+                } else {
+                    buildProcessInfoList(in, windows, macOrAix, selection);
+                }
+            }
+
+            @Override
+            public List<ProcessInfo> getResult() {
+                return selection.getResult();
+            }
+        };
+        if (!windows && !macOrAix && ProcProcessCollector.isAvailable()) {
+            // a read of /proc can block too, the caller is released at the deadline
+            return CommandRunner.execute(collector, timeout, unit);
         }
-        Scanner sc = new Scanner(in, charset);
-        sc.useRadix(10);
-        sc.useLocale(Locale.US);
-        sc.nextLine();
+        // without shell, so that the killed process is the one holding the pipe
+        final String[] command;
         if (windows) {
-            sc.nextLine();
-            sc.nextLine();
+            command = new String[]{"tasklist", "/V"};
+        } else if (macOrAix) {
+            command = new String[]{"ps", "waux"};
+        } else {
+            command = new String[]{"ps", "wauxf"};
         }
+        return CommandRunner.execute(command, collector, timeout, unit);
+    }
 
+    /**
+     * @param selection processes to keep, or null for all the processes
+     */
+    static List<ProcessInfo> buildProcessInfoList(InputStream in, boolean windows, boolean macOrAix,
+                                                  ProcessSelection selection) throws IOException {
+        ProcessInfoParser parser = new ProcessInfoParser(in, windows, macOrAix, selection);
+        parser.skipHeader();
+        if (selection != null) {
+            ProcessInfo processInfo = parser.next();
+            while (processInfo != null) {
+                selection.offer(processInfo);
+                processInfo = parser.next();
+            }
+            return selection.getResult();
+        }
         List<ProcessInfo> processInfos = new ArrayList<>();
-        while (sc.hasNext()) {
-            ProcessInfo processInfo = new ProcessInfo(sc, windows, macOrAix);
+        ProcessInfo processInfo = parser.next();
+        while (processInfo != null) {
             processInfos.add(processInfo);
+            processInfo = parser.next();
         }
         return Collections.unmodifiableList(processInfos);
     }
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming parser of the output of "ps waux", "ps wauxf" and "tasklist /V".
+ * <p>
+ * Lines are tokenized in place in a reusable byte buffer and numbers are parsed from the
+ * bytes, so no intermediate string is created for a column. The strings which repeat from
+ * one process to another (user, tty, stat, start...) are shared through a small cache.
+ */
+final class ProcessInfoParser {
+    // width of the "Status" column of tasklist /V, skipped
+    private static final int WINDOWS_STATE_WIDTH = 16;
+    private static final int CACHE_SIZE = 512;
+    private static final int CACHED_STRING_MAX_LENGTH = 32;
+    private static final float[] POWERS_OF_TEN = {1f, 10f, 100f, 1000f, 10000f, 100000f, 1000000f, 10000000f};
+
+    private final InputStream in;
+    private final boolean windows;
+    private final boolean macOrAix;
+    private final Charset charset;
+    private final ProcessSelection selection;
+    private final String[] cache = new String[CACHE_SIZE];
+    private byte[] buffer = new byte[64 * 1024];
+    private int bufferStart;
+    private int bufferEnd;
+    private boolean eof;
+
+    // current line and token, as offsets in the buffer
+    private int nextLineStart;
+    private int lineEnd;
+    private int position;
+    private int tokenStart;
+    private int tokenEnd;
+
+    /**
+     * @param selection criteria checked before building each process, or null to build them all
+     */
+    ProcessInfoParser(InputStream in, boolean windows, boolean macOrAix, ProcessSelection selection) {
+        super();
+        this.in = in;
+        this.windows = windows;
+        this.macOrAix = macOrAix;
+        this.selection = selection;
+        this.charset = Charset.forName(windows ? "Cp1252" : "UTF-8");
+    }
+
+    /**
+     * Skips the header lines, must be called once before {@link #next()}.
+     */
+    void skipHeader() throws IOException {
+        int headerLines = windows ? 3 : 1;
+        for (int i = 0; i < headerLines; i++) {
+            if (!nextLine()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the next process, or null at the end of the stream
+     */
+    ProcessInfo next() throws IOException {
+        while (nextLine()) {
+            if (nextToken()) {
+                ProcessInfo processInfo = windows ? parseWindows() : parseUnix();
+                if (processInfo != null) {
+                    return processInfo;
+                }
+                // rejected by the selection
+            }
+            // blank line
+        }
+        return null;
+    }
+
+    /**
+     * @return the process of the current line, or null if rejected by the selection
+     */
+    private ProcessInfo parseUnix() throws IOException {
+        String user = string(tokenStart, tokenEnd);
+        if (selection != null && !selection.acceptsUser(user)) {
+            return null;
+        }
+        int pid = nextInt();
+        float cpuPercentage = nextFloat();
+        float memPercentage = nextFloat();
+        int vsz = nextInt();
+        int rss = nextInt();
+        if (selection != null && !selection.acceptsValues(cpuPercentage, memPercentage, vsz, rss)) {
+            return null;
+        }
+        String tty = nextString();
+        String stat = nextString();
+        String start;
+        requireToken();
+        if (macOrAix && isInt(tokenStart, tokenEnd)) {
+            int dayStart = tokenStart;
+            requireToken();
+            start = string(dayStart, tokenEnd);
+        } else {
+            start = string(tokenStart, tokenEnd);
+        }
+        String cpuTime = nextString();
+        // the rest of the line, with its leading spaces which draw the tree of "ps wauxf"
+        String command = new String(buffer, position, lineEnd - position, charset);
+        return new ProcessInfo(user, pid, cpuPercentage, memPercentage, vsz, rss, tty, stat, start, cpuTime, command);
+    }
+
+    private ProcessInfo parseWindows() throws IOException {
+        int imageNameStart = tokenStart;
+        int imageNameEnd = tokenEnd;
+        requireToken();
+        while (!isInt(tokenStart, tokenEnd)) {
+            imageNameEnd = tokenEnd;
+            requireToken();
+        }
+        String imageName = new String(buffer, imageNameStart, imageNameEnd - imageNameStart, charset);
+        int pid = parseInt(tokenStart, tokenEnd);
+        requireToken();
+        if (equals(tokenStart, tokenEnd, "Console")) {
+            // necessary on windows server 2003 without remote connection
+            // ("Console" is sometimes present but sometimes not)
+            requireToken();
+        }
+        requireToken();
+        int vsz = parseGroupedInt(tokenStart, tokenEnd);
+        if (selection != null && !selection.acceptsValues(-1, -1, vsz, -1)) {
+            return null;
+        }
+        // unit of the memory
+        requireToken();
+        position = Math.min(position + WINDOWS_STATE_WIDTH, lineEnd);
+        requireToken();
+        int userStart = tokenStart;
+        int userEnd = tokenEnd;
+        requireToken();
+        while (!isCpuTime(tokenStart, tokenEnd)) {
+            userEnd = tokenEnd;
+            requireToken();
+        }
+        String user = string(userStart, userEnd);
+        if (selection != null && !selection.acceptsUser(user)) {
+            return null;
+        }
+        String cpuTime = string(tokenStart, tokenEnd);
+        String windowTitle = new String(buffer, position, lineEnd - position, charset).trim();
+        String command = imageName + "   (" + windowTitle + ')';
+        return new ProcessInfo(user, pid, -1, -1, vsz, -1, null, null, null, cpuTime, command);
+    }
+
+    private boolean nextLine() throws IOException {
+        bufferStart = nextLineStart;
+        int newLine = indexOfNewLine(bufferStart);
+        while (newLine < 0 && !eof) {
+            fill();
+            newLine = indexOfNewLine(bufferStart);
+        }
+        if (newLine >= 0) {
+            nextLineStart = newLine + 1;
+        } else if (bufferStart < bufferEnd) {
+            // last line without line terminator
+            newLine = bufferEnd;
+            nextLineStart = bufferEnd;
+        } else {
+            return false;
+        }
+        lineEnd = newLine;
+        if (lineEnd > bufferStart && buffer[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+        position = bufferStart;
+        return true;
+    }
+
+    private int indexOfNewLine(int from) {
+        for (int i = from; i < bufferEnd; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void fill() throws IOException {
+        if (bufferStart > 0) {
+            // compact the current line at the beginning of the buffer
+            System.arraycopy(buffer, bufferStart, buffer, 0, bufferEnd - bufferStart);
+            bufferEnd -= bufferStart;
+            bufferStart = 0;
+            nextLineStart = 0;
+        } else if (bufferEnd == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, bufferEnd);
+            buffer = larger;
+        }
+        int read = in.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (read < 0) {
+            eof = true;
+        } else {
+            bufferEnd += read;
+        }
+    }
+
+    private boolean nextToken() {
+        int i = position;
+        while (i < lineEnd && isWhitespace(buffer[i])) {
+            i++;
+        }
+        if (i >= lineEnd) {
+            position = lineEnd;
+            return false;
+        }
+        tokenStart = i;
+        while (i < lineEnd && !isWhitespace(buffer[i])) {
+            i++;
+        }
+        tokenEnd = i;
+        position = i;
+        return true;
+    }
+
+    private void requireToken() throws IOException {
+        if (!nextToken()) {
+            throw new IOException("Unexpected end of line: "
+                    + new String(buffer, bufferStart, lineEnd - bufferStart, charset));
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private String nextString() throws IOException {
+        requireToken();
+        return string(tokenStart, tokenEnd);
+    }
+
+    private int nextInt() throws IOException {
+        requireToken();
+        return parseInt(tokenStart, tokenEnd);
+    }
+
+    private float nextFloat() throws IOException {
+        requireToken();
+        return parseFloat(tokenStart, tokenEnd);
+    }
+
+    private boolean isInt(int start, int end) {
+        int i = start;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            return false;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                return false;
+            }
+            value = value * 10 + b - '0';
+        }
+        return value <= Integer.MAX_VALUE;
+    }
+
+    private int parseInt(int start, int end) throws IOException {
+        if (!isInt(start, end)) {
+            throw new IOException("Not an integer: " + new String(buffer, start, end - start, charset));
+        }
+        int i = start;
+        boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+') {
+            i++;
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            value = value * 10 + buffer[i] - '0';
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses an integer with group separators, as the memory column of tasklist.
+     */
+    private int parseGroupedInt(int start, int end) throws IOException {
+        long value = 0;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + b - '0';
+                digits = true;
+            } else if (b != '.' && b != ',' && b != (byte) 0xFF) {
+                digits = false;
+                break;
+            }
+        }
+        if (!digits || value > Integer.MAX_VALUE) {
+            throw new IOException("Not an integer: " + new String(buffer, start, end - start, charset));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a decimal with either '.' or ',' as decimal separator, depending on the locale of ps.
+     */
+    private float parseFloat(int start, int end) {
+        int i = start;
+        boolean negative = i < end && buffer[i] == '-';
+        if (negative) {
+            i++;
+        }
+        int mantissa = 0;
+        int scale = 0;
+        boolean decimals = false;
+        boolean digits = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9' && mantissa < 1000000) {
+                mantissa = mantissa * 10 + b - '0';
+                digits = true;
+                if (decimals) {
+                    scale++;
+                }
+            } else if ((b == '.' || b == ',') && !decimals) {
+                decimals = true;
+            } else {
+                // unusual format, let the jdk parse it
+                return Float.parseFloat(new String(buffer, start, end - start, charset).replace(',', '.'));
+            }
+        }
+        if (!digits) {
+            return Float.parseFloat(new String(buffer, start, end - start, charset).replace(',', '.'));
+        }
+        // mantissa and power of ten are exact floats, so the division is correctly rounded
+        float value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    private boolean isCpuTime(int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if ((b < '0' || b > '9') && b != ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equals(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a token, sharing the instance with the previous identical token when short and ascii.
+     */
+    private String string(int start, int end) {
+        int length = end - start;
+        if (length > CACHED_STRING_MAX_LENGTH) {
+            return new String(buffer, start, length, charset);
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (b < 0) {
+                return new String(buffer, start, length, charset);
+            }
+            hash = 31 * hash + b;
+        }
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        String cached = cache[slot];
+        if (cached != null && equals(start, end, cached)) {
+            return cached;
+        }
+        String value = new String(buffer, start, length, charset);
+        cache[slot] = value;
+        return value;
+    }
+}
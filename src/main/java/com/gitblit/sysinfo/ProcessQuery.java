@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Selects the processes to collect with {@link ProcessInfo#buildProcessInfoList(ProcessQuery)}.
+ * <p>
+ * The user and the numeric thresholds are checked while parsing, before a row is turned into
+ * a {@link ProcessInfo}, and so is the top-N selection: a row which cannot enter the current
+ * top N is dropped as soon as its sort value is known. The {@link #filter(Predicate)} is only
+ * evaluated on the rows which passed the other criteria.
+ */
+public final class ProcessQuery {
+
+    /**
+     * Sort value of a top-N selection, the highest values are selected.
+     */
+    public enum Order {
+        CPU_PERCENTAGE,
+        MEM_PERCENTAGE,
+        RSS,
+        VSZ;
+
+        double valueOf(float cpuPercentage, float memPercentage, long vsz, long rss) {
+            switch (this) {
+                case CPU_PERCENTAGE:
+                    return cpuPercentage;
+                case MEM_PERCENTAGE:
+                    return memPercentage;
+                case RSS:
+                    return rss;
+                case VSZ:
+                    return vsz;
+                default:
+                    throw new IllegalArgumentException(name());
+            }
+        }
+
+        double valueOf(ProcessInfo processInfo) {
+            return valueOf(processInfo.getCpuPercentage(), processInfo.getMemPercentage(),
+                    processInfo.getVsz(), processInfo.getRss());
+        }
+    }
+
+    private String user;
+    private float minCpuPercentage = Float.NEGATIVE_INFINITY;
+    private float minMemPercentage = Float.NEGATIVE_INFINITY;
+    private long minRss = Long.MIN_VALUE;
+    private Predicate<ProcessInfo> filter;
+    private Order order;
+    private int limit = Integer.MAX_VALUE;
+
+    public ProcessQuery() {
+        super();
+    }
+
+    /**
+     * Only processes owned by this user.
+     */
+    public ProcessQuery user(String user) {
+        this.user = user;
+        return this;
+    }
+
+    public ProcessQuery minCpuPercentage(float minCpuPercentage) {
+        this.minCpuPercentage = minCpuPercentage;
+        return this;
+    }
+
+    public ProcessQuery minMemPercentage(float minMemPercentage) {
+        this.minMemPercentage = minMemPercentage;
+        return this;
+    }
+
+    /**
+     * @param minRss minimum resident set size in KB
+     */
+    public ProcessQuery minRss(long minRss) {
+        this.minRss = minRss;
+        return this;
+    }
+
+    /**
+     * Additional criteria, evaluated on the processes matching the other criteria.
+     */
+    public ProcessQuery filter(Predicate<ProcessInfo> filter) {
+        this.filter = this.filter == null ? filter : this.filter.and(filter);
+        return this;
+    }
+
+    /**
+     * Only the {@code limit} processes with the highest value of {@code order}, by decreasing value.
+     */
+    public ProcessQuery top(int limit, Order order) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        Objects.requireNonNull(order, "order");
+        this.limit = limit;
+        this.order = order;
+        return this;
+    }
+
+    String getUser() {
+        return user;
+    }
+
+    Predicate<ProcessInfo> getFilter() {
+        return filter;
+    }
+
+    Order getOrder() {
+        return order;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    boolean acceptsUser(String processUser) {
+        return user == null || user.equals(processUser);
+    }
+
+    /**
+     * @param cpuPercentage negative if unknown, not filtered then
+     * @param memPercentage negative if unknown, not filtered then
+     * @param rss negative if unknown, not filtered then
+     */
+    boolean acceptsValues(float cpuPercentage, float memPercentage, long rss) {
+        return (cpuPercentage < 0 || cpuPercentage >= minCpuPercentage)
+                && (memPercentage < 0 || memPercentage >= minMemPercentage)
+                && (rss < 0 || rss >= minRss);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[user=" + user + ", order=" + order + ", limit=" + limit + ']';
+    }
+}
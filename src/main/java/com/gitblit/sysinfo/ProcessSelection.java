@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * State of one evaluation of a {@link ProcessQuery}: the rows accepted so far, in a bounded
+ * min-heap when the query has a top-N. Synchronized, so that a partial result can be taken
+ * while a collection bounded by a deadline is still running.
+ */
+final class ProcessSelection {
+    private final ProcessQuery query;
+    private final ProcessQuery.Order order;
+    private final int limit;
+    private final Comparator<ProcessInfo> comparator;
+    private final PriorityQueue<ProcessInfo> heap;
+    private final List<ProcessInfo> list;
+
+    ProcessSelection(ProcessQuery query) {
+        super();
+        this.query = query;
+        this.order = query.getOrder();
+        this.limit = query.getLimit();
+        if (order != null) {
+            // the head of the heap is the weakest selected process
+            Comparator<ProcessInfo> byValue = (p1, p2) -> Double.compare(order.valueOf(p1), order.valueOf(p2));
+            this.comparator = byValue.thenComparing(Comparator.<ProcessInfo>reverseOrder());
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)), comparator);
+            this.list = null;
+        } else {
+            this.comparator = null;
+            this.heap = null;
+            this.list = new ArrayList<>();
+        }
+    }
+
+    boolean acceptsUser(String user) {
+        return query.acceptsUser(user);
+    }
+
+    /**
+     * Checks the thresholds of the query and whether a row with these values could enter the top-N.
+     * Unknown values are negative.
+     */
+    synchronized boolean acceptsValues(float cpuPercentage, float memPercentage, long vsz, long rss) {
+        if (!query.acceptsValues(cpuPercentage, memPercentage, rss)) {
+            return false;
+        }
+        if (heap != null) {
+            if (limit == 0) {
+                return false;
+            }
+            double value = order.valueOf(cpuPercentage, memPercentage, vsz, rss);
+            if (value >= 0 && heap.size() >= limit) {
+                return value > order.valueOf(heap.peek());
+            }
+        }
+        return true;
+    }
+
+    synchronized void offer(ProcessInfo processInfo) {
+        if (!query.acceptsUser(processInfo.getUser())
+                || !acceptsValues(processInfo.getCpuPercentage(), processInfo.getMemPercentage(),
+                processInfo.getVsz(), processInfo.getRss())) {
+            return;
+        }
+        if (query.getFilter() != null && !query.getFilter().test(processInfo)) {
+            return;
+        }
+        if (heap == null) {
+            if (list.size() < limit) {
+                list.add(processInfo);
+            }
+            return;
+        }
+        heap.add(processInfo);
+        if (heap.size() > limit) {
+            heap.poll();
+        }
+    }
+
+    /**
+     * @return the selected processes, by decreasing order value for a top-N, by pid otherwise
+     */
+    synchronized List<ProcessInfo> getResult() {
+        List<ProcessInfo> result;
+        if (heap != null) {
+            result = new ArrayList<>(heap);
+            Collections.sort(result, comparator.reversed());
+        } else {
+            result = new ArrayList<>(list);
+            Collections.sort(result);
+        }
+        return Collections.unmodifiableList(result);
+    }
+}
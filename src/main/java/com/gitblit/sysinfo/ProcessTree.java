@@ -0,0 +1,408 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Tree of the processes by parent pid, with the rss and cpu of each subtree and of each cgroup.
+ * <p>
+ * The tree is updated incrementally from one sample of the process list to the next: only the
+ * processes which appeared, exited, changed parent or changed values update the totals of their
+ * ancestors and of their cgroup, so an update costs the number of changes times the depth of
+ * the tree rather than a full rebuild.
+ * <p>
+ * The parent pid and the cgroup are known when the processes are read from /proc; processes
+ * without parent pid are roots. Nodes are updated in place and must not be read during an update.
+ */
+public class ProcessTree {
+
+    private final Map<Integer, Node> nodes = new HashMap<>();
+    private final Map<String, CgroupUsage> cgroups = new HashMap<>();
+    private long generation;
+
+    /**
+     * A process in the tree.
+     */
+    public static final class Node {
+        private final int pid;
+        private final long startKey;
+        private ProcessInfo processInfo;
+        private Node parent;
+        private final List<Node> children = new ArrayList<>(0);
+        private long rss;
+        private double cpuPercentage;
+        private String cgroup;
+        private long subtreeRss;
+        private double subtreeCpuPercentage;
+        private int subtreeProcessCount = 1;
+        private long generation;
+
+        private Node(int pid, long startKey) {
+            this.pid = pid;
+            this.startKey = startKey;
+        }
+
+        public int getPid() {
+            return pid;
+        }
+
+        public ProcessInfo getProcessInfo() {
+            return processInfo;
+        }
+
+        /**
+         * @return the parent node, or null for a root
+         */
+        public Node getParent() {
+            return parent;
+        }
+
+        public List<Node> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+
+        public long getRss() {
+            return rss;
+        }
+
+        public double getCpuPercentage() {
+            return cpuPercentage;
+        }
+
+        public String getCgroup() {
+            return cgroup;
+        }
+
+        /**
+         * @return the rss of the process and of all its descendants, in KB
+         */
+        public long getSubtreeRss() {
+            return subtreeRss;
+        }
+
+        public double getSubtreeCpuPercentage() {
+            return subtreeCpuPercentage;
+        }
+
+        public int getSubtreeProcessCount() {
+            return subtreeProcessCount;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[pid=" + pid + ", subtreeRss=" + subtreeRss
+                    + ", subtreeCpuPercentage=" + subtreeCpuPercentage + ", subtreeProcessCount="
+                    + subtreeProcessCount + ']';
+        }
+    }
+
+    /**
+     * Totals of the processes of a cgroup.
+     */
+    public static final class CgroupUsage implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String cgroup;
+        private int processCount;
+        private long rss;
+        private double cpuPercentage;
+
+        private CgroupUsage(String cgroup) {
+            this.cgroup = cgroup;
+        }
+
+        private CgroupUsage(CgroupUsage usage) {
+            this.cgroup = usage.cgroup;
+            this.processCount = usage.processCount;
+            this.rss = usage.rss;
+            this.cpuPercentage = usage.cpuPercentage;
+        }
+
+        public String getCgroup() {
+            return cgroup;
+        }
+
+        public int getProcessCount() {
+            return processCount;
+        }
+
+        public long getRss() {
+            return rss;
+        }
+
+        public double getCpuPercentage() {
+            return cpuPercentage;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[cgroup=" + cgroup + ", processCount=" + processCount
+                    + ", rss=" + rss + ", cpuPercentage=" + cpuPercentage + ']';
+        }
+    }
+
+    public ProcessTree() {
+        super();
+    }
+
+    /**
+     * Updates the tree with a new sample, using the lifetime cpu percentage reported for each process.
+     */
+    public synchronized void update(List<ProcessInfo> processInfos) {
+        generation++;
+        List<Node> sampled = new ArrayList<>(processInfos.size());
+        for (ProcessInfo processInfo : processInfos) {
+            sampled.add(updateNode(processInfo, processInfo.getCpuPercentage()));
+        }
+        removeExited();
+        link(sampled);
+    }
+
+    /**
+     * Updates the tree with a new sample of a {@link ProcessCpuSampler}, using the cpu percentage
+     * over the interval for each process.
+     */
+    public synchronized void updateWithCpuUsages(List<ProcessCpuUsage> usages) {
+        generation++;
+        List<Node> sampled = new ArrayList<>(usages.size());
+        for (ProcessCpuUsage usage : usages) {
+            sampled.add(updateNode(usage.getProcessInfo(), usage.getIntervalCpuPercentage()));
+        }
+        removeExited();
+        link(sampled);
+    }
+
+    public synchronized Node getNode(int pid) {
+        return nodes.get(pid);
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized List<Node> getRoots() {
+        List<Node> roots = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            if (node.parent == null) {
+                roots.add(node);
+            }
+        }
+        Collections.sort(roots, Comparator.comparingInt(Node::getPid));
+        return roots;
+    }
+
+    /**
+     * @return the {@code n} processes with the largest subtree rss, by decreasing subtree rss
+     */
+    public synchronized List<Node> getTopSubtreesByRss(int n) {
+        return top(n, Comparator.comparingLong(Node::getSubtreeRss));
+    }
+
+    /**
+     * @return the {@code n} processes with the largest subtree cpu, by decreasing subtree cpu
+     */
+    public synchronized List<Node> getTopSubtreesByCpu(int n) {
+        return top(n, Comparator.comparingDouble(Node::getSubtreeCpuPercentage));
+    }
+
+    /**
+     * @return a copy of the totals of each cgroup, by decreasing rss
+     */
+    public synchronized List<CgroupUsage> getCgroupUsages() {
+        List<CgroupUsage> result = new ArrayList<>(cgroups.size());
+        for (CgroupUsage usage : cgroups.values()) {
+            result.add(new CgroupUsage(usage));
+        }
+        Collections.sort(result, Comparator.comparingLong(CgroupUsage::getRss).reversed());
+        return result;
+    }
+
+    private List<Node> top(int n, Comparator<Node> comparator) {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        PriorityQueue<Node> heap = new PriorityQueue<>(n, comparator);
+        for (Node node : nodes.values()) {
+            if (heap.size() < n) {
+                heap.add(node);
+            } else if (comparator.compare(node, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(node);
+            }
+        }
+        List<Node> result = new ArrayList<>(heap);
+        Collections.sort(result, comparator.reversed());
+        return result;
+    }
+
+    private Node updateNode(ProcessInfo processInfo, double cpuPercentage) {
+        long startKey = processInfo.getStartKey();
+        Node node = nodes.get(processInfo.getPid());
+        if (node != null && node.startKey != startKey) {
+            // pid reused by a new process
+            remove(node);
+            node = null;
+        }
+        if (node == null) {
+            node = new Node(processInfo.getPid(), startKey);
+            nodes.put(node.pid, node);
+        }
+        long rss = Math.max(0, processInfo.getRss());
+        double cpu = Math.max(0, cpuPercentage);
+        String cgroup = processInfo.getCgroup();
+        if (node.generation == 0 || !equals(cgroup, node.cgroup)) {
+            if (node.generation != 0) {
+                addToCgroup(node.cgroup, -1, -node.rss, -node.cpuPercentage);
+            }
+            addToCgroup(cgroup, 1, rss, cpu);
+        } else {
+            addToCgroup(cgroup, 0, rss - node.rss, cpu - node.cpuPercentage);
+        }
+        addToSubtrees(node, rss - node.rss, cpu - node.cpuPercentage, 0);
+        node.rss = rss;
+        node.cpuPercentage = cpu;
+        node.cgroup = cgroup;
+        node.processInfo = processInfo;
+        node.generation = generation;
+        return node;
+    }
+
+    private void removeExited() {
+        List<Node> exited = new ArrayList<>();
+        for (Iterator<Node> it = nodes.values().iterator(); it.hasNext(); ) {
+            Node node = it.next();
+            if (node.generation != generation) {
+                exited.add(node);
+            }
+        }
+        for (Node node : exited) {
+            remove(node);
+        }
+    }
+
+    private void link(List<Node> sampled) {
+        for (Node node : sampled) {
+            int ppid = node.processInfo.getPpid();
+            Node parent = ppid > 0 && ppid != node.pid ? nodes.get(ppid) : null;
+            if (parent == node.parent) {
+                continue;
+            }
+            detach(node);
+            if (parent != null && !isAncestorOrSelf(node, parent)) {
+                attach(node, parent);
+            }
+        }
+    }
+
+    private void remove(Node node) {
+        detach(node);
+        for (Node child : node.children) {
+            // orphans stay roots until they are linked to their new parent
+            child.parent = null;
+        }
+        node.children.clear();
+        addToCgroup(node.cgroup, -1, -node.rss, -node.cpuPercentage);
+        nodes.remove(node.pid);
+    }
+
+    private void detach(Node node) {
+        Node parent = node.parent;
+        if (parent == null) {
+            return;
+        }
+        for (Node ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.subtreeRss -= node.subtreeRss;
+            ancestor.subtreeCpuPercentage -= node.subtreeCpuPercentage;
+            ancestor.subtreeProcessCount -= node.subtreeProcessCount;
+        }
+        parent.children.remove(node);
+        node.parent = null;
+    }
+
+    private static void attach(Node node, Node parent) {
+        parent.children.add(node);
+        node.parent = parent;
+        for (Node ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.subtreeRss += node.subtreeRss;
+            ancestor.subtreeCpuPercentage += node.subtreeCpuPercentage;
+            ancestor.subtreeProcessCount += node.subtreeProcessCount;
+        }
+    }
+
+    private static void addToSubtrees(Node node, long rss, double cpuPercentage, int processCount) {
+        if (rss == 0 && cpuPercentage == 0 && processCount == 0) {
+            return;
+        }
+        for (Node ancestor = node; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.subtreeRss += rss;
+            ancestor.subtreeCpuPercentage += cpuPercentage;
+            ancestor.subtreeProcessCount += processCount;
+        }
+    }
+
+    private static boolean isAncestorOrSelf(Node node, Node candidate) {
+        for (Node ancestor = candidate; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addToCgroup(String cgroup, int processCount, long rss, double cpuPercentage) {
+        if (cgroup == null) {
+            return;
+        }
+        CgroupUsage usage = cgroups.get(cgroup);
+        if (usage == null) {
+            usage = new CgroupUsage(cgroup);
+            cgroups.put(cgroup, usage);
+        }
+        usage.processCount += processCount;
+        usage.rss += rss;
+        usage.cpuPercentage += cpuPercentage;
+        if (usage.processCount <= 0) {
+            cgroups.remove(cgroup);
+        }
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + size() + ']';
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Background sampling profiler: periodically captures the stacks of the runnable threads and
+ * aggregates them into a trie of frames, exported in the collapsed format of flame graphs
+ * ({@code frame;frame;frame count} per line, outermost frame first).
+ * <p>
+ * The states of the threads are read first without stack, so that only the stacks of the
+ * runnable threads accepted by the name filter are captured. The time spent sampling is
+ * measured, and the period is lengthened when it exceeds the overhead budget, then shortened
+ * back to the configured period when the cost drops. When the trie reaches its maximum number of
+ * nodes, the least sampled branches are folded into their parent.
+ */
+public class SamplingProfiler {
+    private static final int DEFAULT_MAX_NODES = 100000;
+    private static final int DEFAULT_MAX_DEPTH = 256;
+    private static final double DEFAULT_OVERHEAD_BUDGET_PERCENTAGE = 1d;
+    // the adaptive period stays within 100 times the configured period
+    private static final int MAX_PERIOD_FACTOR = 100;
+
+    private final long periodNanos;
+    private volatile Predicate<String> threadNameFilter;
+    private volatile int maxDepth = DEFAULT_MAX_DEPTH;
+    private volatile double overheadBudgetPercentage = DEFAULT_OVERHEAD_BUDGET_PERCENTAGE;
+    private int maxNodes = DEFAULT_MAX_NODES;
+
+    private final Node root = new Node(null, null);
+    private final Map<StackTraceElement, String> frameNames = new HashMap<>();
+    private int nodeCount;
+    private long sampleCount;
+    private long stackCount;
+    private long evictedNodeCount;
+    private long currentPeriodNanos;
+    private long samplingNanos;
+    private long startNanos;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+
+    /**
+     * A frame of the trie with the number of samples in which it was on the stack (total) and
+     * at the top of the stack (self).
+     */
+    private static final class Node {
+        private final String frame;
+        private final Node parent;
+        private Map<String, Node> children;
+        private long totalCount;
+        private long selfCount;
+
+        Node(String frame, Node parent) {
+            this.frame = frame;
+            this.parent = parent;
+        }
+
+        boolean isLeaf() {
+            return children == null || children.isEmpty();
+        }
+    }
+
+    /**
+     * @param period the interval between two samples when the overhead is within the budget
+     */
+    public SamplingProfiler(long period, TimeUnit unit) {
+        super();
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        this.periodNanos = unit.toNanos(period);
+        this.currentPeriodNanos = periodNanos;
+    }
+
+    /**
+     * Only samples the threads whose name is accepted by the filter.
+     */
+    public SamplingProfiler threadNameFilter(Predicate<String> threadNameFilter) {
+        this.threadNameFilter = threadNameFilter;
+        return this;
+    }
+
+    /**
+     * @param maxDepth the maximum number of frames captured for a thread, the outermost frames of deeper stacks are dropped
+     */
+    public SamplingProfiler maxDepth(int maxDepth) {
+        if (maxDepth <= 0) {
+            throw new IllegalArgumentException("maxDepth must be positive: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * @param maxNodes the maximum number of frames in the trie
+     */
+    public synchronized SamplingProfiler maxNodes(int maxNodes) {
+        if (maxNodes <= 0) {
+            throw new IllegalArgumentException("maxNodes must be positive: " + maxNodes);
+        }
+        this.maxNodes = maxNodes;
+        if (nodeCount > maxNodes) {
+            evict(maxNodes);
+        }
+        return this;
+    }
+
+    /**
+     * @param overheadBudgetPercentage the maximum time spent sampling, in percent of the elapsed time
+     */
+    public SamplingProfiler overheadBudget(double overheadBudgetPercentage) {
+        if (overheadBudgetPercentage <= 0) {
+            throw new IllegalArgumentException("overheadBudgetPercentage must be positive: " + overheadBudgetPercentage);
+        }
+        this.overheadBudgetPercentage = overheadBudgetPercentage;
+        return this;
+    }
+
+    /**
+     * Starts sampling on a daemon thread.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            throw new IllegalStateException("profiler already started");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(
+                CommandRunner.daemonThreadFactory("sysinfo-profiler"));
+        startNanos = System.nanoTime();
+        samplingNanos = 0;
+        future = executor.schedule(this::sampleAndReschedule, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private void sampleAndReschedule() {
+        long cost = sample();
+        synchronized (this) {
+            if (executor == null) {
+                return;
+            }
+            samplingNanos += cost;
+            adaptPeriod(cost);
+            future = executor.schedule(this::sampleAndReschedule, currentPeriodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void adaptPeriod(long cost) {
+        // the period for which this sample would have been exactly within the budget
+        long budgetPeriodNanos = (long) (cost * 100d / overheadBudgetPercentage);
+        long target = Math.min(Math.max(periodNanos, budgetPeriodNanos), periodNanos * MAX_PERIOD_FACTOR);
+        if (target > currentPeriodNanos) {
+            currentPeriodNanos = target;
+        } else {
+            // back to the configured period progressively, one sample may have been cheap by chance
+            currentPeriodNanos = Math.max(target, currentPeriodNanos - (currentPeriodNanos - target) / 4);
+        }
+    }
+
+    /**
+     * Captures the runnable threads once and adds their stacks to the trie.
+     *
+     * @return the time spent, in nanoseconds
+     */
+    public long sample() {
+        long start = System.nanoTime();
+        long[] ids = ThreadMXBeans.THREAD_BEAN.getAllThreadIds();
+        java.lang.management.ThreadInfo[] states = ThreadMXBeans.THREAD_BEAN.getThreadInfo(ids, 0);
+        long currentThreadId = Thread.currentThread().getId();
+        Predicate<String> filter = threadNameFilter;
+        int count = 0;
+        for (java.lang.management.ThreadInfo state : states) {
+            if (state != null && state.getThreadState() == Thread.State.RUNNABLE
+                    && state.getThreadId() != currentThreadId
+                    && (filter == null || filter.test(state.getThreadName()))) {
+                ids[count++] = state.getThreadId();
+            }
+        }
+        java.lang.management.ThreadInfo[] threadInfos = ThreadMXBeans.THREAD_BEAN.getThreadInfo(
+                Arrays.copyOf(ids, count), maxDepth);
+        synchronized (this) {
+            sampleCount++;
+            for (java.lang.management.ThreadInfo threadInfo : threadInfos) {
+                // a thread may have left the runnable state between the two captures
+                if (threadInfo != null && threadInfo.getThreadState() == Thread.State.RUNNABLE) {
+                    add(threadInfo.getStackTrace());
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void add(StackTraceElement[] stackTrace) {
+        if (stackTrace.length == 0) {
+            return;
+        }
+        stackCount++;
+        if (nodeCount >= maxNodes) {
+            // evicts 10% of the nodes at once, so that eviction is not done on each sample
+            evict(maxNodes - Math.max(1, maxNodes / 10));
+        }
+        Node node = root;
+        node.totalCount++;
+        for (int i = stackTrace.length - 1; i >= 0; i--) {
+            String frame = frameName(stackTrace[i]);
+            Node child = node.children == null ? null : node.children.get(frame);
+            if (child == null) {
+                if (nodeCount >= maxNodes) {
+                    // the remaining frames are counted in the deepest retained frame
+                    break;
+                }
+                if (node.children == null) {
+                    node.children = new HashMap<>(4);
+                }
+                child = new Node(frame, node);
+                node.children.put(frame, child);
+                nodeCount++;
+            }
+            node = child;
+            node.totalCount++;
+        }
+        node.selfCount++;
+    }
+
+    private String frameName(StackTraceElement element) {
+        String frame = frameNames.get(element);
+        if (frame == null) {
+            if (frameNames.size() >= maxNodes) {
+                // bounded like the trie
+                frameNames.clear();
+            }
+            frame = element.getClassName() + '.' + element.getMethodName();
+            frameNames.put(element, frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Folds the least sampled leaves into their parent until the trie has {@code targetNodeCount} nodes.
+     */
+    private void evict(int targetNodeCount) {
+        PriorityQueue<Node> leaves = new PriorityQueue<>((n1, n2) -> Long.compare(n1.totalCount, n2.totalCount));
+        collectLeaves(root, leaves);
+        while (nodeCount > targetNodeCount && !leaves.isEmpty()) {
+            Node leaf = leaves.poll();
+            Node parent = leaf.parent;
+            parent.selfCount += leaf.selfCount;
+            parent.children.remove(leaf.frame);
+            nodeCount--;
+            evictedNodeCount++;
+            if (parent != root && parent.isLeaf()) {
+                leaves.add(parent);
+            }
+        }
+    }
+
+    private static void collectLeaves(Node root, PriorityQueue<Node> leaves) {
+        List<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            if (node.isLeaf()) {
+                if (node != root) {
+                    leaves.add(node);
+                }
+            } else {
+                stack.addAll(node.children.values());
+            }
+        }
+    }
+
+    /**
+     * Writes the trie in the collapsed stack format, one line per distinct stack.
+     */
+    public synchronized void writeCollapsedStacks(Appendable out) throws IOException {
+        StringBuilder path = new StringBuilder();
+        if (root.children != null) {
+            for (Node child : root.children.values()) {
+                writeCollapsedStacks(child, path, out);
+            }
+        }
+    }
+
+    private static void writeCollapsedStacks(Node node, StringBuilder path, Appendable out) throws IOException {
+        int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        path.append(node.frame);
+        if (node.selfCount > 0) {
+            out.append(path).append(' ').append(Long.toString(node.selfCount)).append('\n');
+        }
+        if (node.children != null) {
+            for (Node child : node.children.values()) {
+                writeCollapsedStacks(child, path, out);
+            }
+        }
+        path.setLength(length);
+    }
+
+    /**
+     * @return the trie in the collapsed stack format
+     */
+    public String toCollapsedStacks() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeCollapsedStacks(sb);
+        } catch (IOException e) {
+            // not thrown by a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Clears the trie and the counters.
+     */
+    public synchronized void reset() {
+        root.children = null;
+        root.totalCount = 0;
+        root.selfCount = 0;
+        frameNames.clear();
+        nodeCount = 0;
+        sampleCount = 0;
+        stackCount = 0;
+        evictedNodeCount = 0;
+        samplingNanos = 0;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the number of samples taken
+     */
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the number of stacks added to the trie
+     */
+    public synchronized long getStackCount() {
+        return stackCount;
+    }
+
+    public synchronized int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of nodes folded into their parent because the trie was full
+     */
+    public synchronized long getEvictedNodeCount() {
+        return evictedNodeCount;
+    }
+
+    /**
+     * @return the current interval between two samples, lengthened when the overhead exceeds the budget
+     */
+    public synchronized long getCurrentPeriodMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(currentPeriodNanos);
+    }
+
+    /**
+     * @return the time spent sampling since the start, in percent of the elapsed time
+     */
+    public synchronized double getOverheadPercentage() {
+        long elapsed = System.nanoTime() - startNanos;
+        if (startNanos == 0 || elapsed <= 0) {
+            return 0d;
+        }
+        return 100d * samplingNanos / elapsed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[periodMillis=" + TimeUnit.NANOSECONDS.toMillis(periodNanos)
+                + ", sampleCount=" + getSampleCount() + ", nodeCount=" + getNodeCount() + ']';
+    }
+}
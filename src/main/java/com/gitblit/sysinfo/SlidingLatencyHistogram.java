@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link LatencyHistogram} over a sliding window: a ring of histograms, each for a slice of time,
+ * where the slice which is reused for a new period of time is cleared first. A snapshot merges the
+ * slices of the window, so the window slides by steps of one slice.
+ * <p>
+ * Recording stays lock-free; a value recorded concurrently with the clearing of its slice may be lost.
+ * <p>
+ * The times are {@link System#nanoTime()} values, which may be negative: the slices are numbered from
+ * an origin taken at construction, so that they are never negative and -1 marks a slice never used.
+ */
+final class SlidingLatencyHistogram {
+    private final long originNanos;
+    private final long sliceNanos;
+    private final LatencyHistogram[] slices;
+    private final AtomicLongArray sliceEpochs;
+
+    SlidingLatencyHistogram(long sliceNanos, int sliceCount) {
+        if (sliceNanos <= 0 || sliceCount <= 0) {
+            throw new IllegalArgumentException("slice duration and count must be positive");
+        }
+        this.originNanos = System.nanoTime();
+        this.sliceNanos = sliceNanos;
+        this.slices = new LatencyHistogram[sliceCount];
+        this.sliceEpochs = new AtomicLongArray(sliceCount);
+        for (int i = 0; i < sliceCount; i++) {
+            slices[i] = new LatencyHistogram();
+            sliceEpochs.set(i, -1);
+        }
+    }
+
+    void record(long value, long nowNanos) {
+        long epoch = epoch(nowNanos);
+        int slot = (int) Math.floorMod(epoch, (long) slices.length);
+        long slotEpoch = sliceEpochs.get(slot);
+        if (slotEpoch < epoch && sliceEpochs.compareAndSet(slot, slotEpoch, epoch)) {
+            slices[slot].reset();
+        }
+        slices[slot].record(value);
+    }
+
+    /**
+     * @return a new histogram with the values of the window ending at {@code nowNanos}
+     */
+    LatencyHistogram snapshot(long nowNanos) {
+        long epoch = epoch(nowNanos);
+        LatencyHistogram merged = new LatencyHistogram();
+        for (int i = 0; i < slices.length; i++) {
+            long slotEpoch = sliceEpochs.get(i);
+            if (slotEpoch > epoch - slices.length && slotEpoch <= epoch) {
+                merged.add(slices[i]);
+            }
+        }
+        return merged;
+    }
+
+    private long epoch(long nowNanos) {
+        // a time taken just before the construction counts in the first slice
+        return Math.max(0, nowNanos - originNanos) / sliceNanos;
+    }
+}
@@ -17,6 +17,8 @@
  */
 package com.gitblit.sysinfo;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
@@ -24,8 +26,12 @@ import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This code was extracted from JavaMelody and refactored.
@@ -37,56 +43,214 @@ public class SysInfo implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private static final Date START_DATE = new Date();
-    private final MemoryInfo memoryInfo;
-    private final long processCpuTimeMillis;
-    private final double systemLoadAverage;
-    private final long unixOpenFileDescriptorCount;
-    private final long unixMaxFileDescriptorCount;
-    private final String host;
-    private final String os;
-    private final int availableProcessors;
-    private final String javaVersion;
-    private final String jvmVersion;
+    private static final long PROCESS_INFO_TIMEOUT_SECONDS = 30;
+
+    /**
+     * The independently collectable parts of a snapshot.
+     */
+    public enum Section {
+        /** host name and address, requires a DNS lookup */
+        HOST,
+        /** operating system description and available processors */
+        OS,
+        /** java and jvm versions and jvm arguments */
+        JVM,
+        /** thread counts */
+        THREADS,
+        /** stack traces and cpu times of all threads */
+        THREAD_INFO,
+        /** {@link VirtualThreadSummary}, java 21+, dumps all threads to a file: only collected when asked for */
+        VIRTUAL_THREADS,
+        /** processes of the operating system, forks a command */
+        PROCESS_INFO,
+        /** {@link MemoryInfo} */
+        MEMORY,
+        /** process cpu time and system load average */
+        CPU,
+        /** unix open and max file descriptor counts */
+        FILE_DESCRIPTORS,
+        /** free disk space in the temporary directory */
+        DISK
+    }
+
+    private final Set<Section> sections;
+    private final Set<Section> collected;
+    // one lock per section, so that a slow section (PROCESS_INFO) does not block the getters of the
+    // others; empty arrays because the locks are serialized with the snapshot
+    private final Object[] sectionLocks;
     private final String pid;
     private final Date startDate;
-    private final String jvmArguments;
-    private final long freeDiskSpaceInTemp;
-    private final int threadCount;
-    private final int peakThreadCount;
-    private final long totalStartedThreadCount;
-    private final List<ThreadInfo> threadInfoList;
-    private final List<ProcessInfo> processInfoList;
+    private MemoryInfo memoryInfo;
+    private long processCpuTimeMillis = -1;
+    private double systemLoadAverage = -1;
+    private long unixOpenFileDescriptorCount = -1;
+    private long unixMaxFileDescriptorCount = -1;
+    private String host;
+    private String os;
+    private int availableProcessors = -1;
+    private String javaVersion;
+    private String jvmVersion;
+    private String jvmArguments;
+    private long freeDiskSpaceInTemp = -1;
+    private int threadCount = -1;
+    private int peakThreadCount = -1;
+    private long totalStartedThreadCount = -1;
+    private List<ThreadInfo> threadInfoList = Collections.emptyList();
+    private List<ProcessInfo> processInfoList = Collections.emptyList();
+    private boolean processInfoComplete = true;
+    private VirtualThreadSummary virtualThreadSummary;
 
     public SysInfo() {
         this(true, true);
     }
 
     public SysInfo(boolean collectThreadInfo, boolean collectProcessInfo) {
-        startDate = START_DATE;
-        host = Parameters.getHostName() + '@' + Parameters.getHostAddress();
-        os = buildOS();
-        availableProcessors = Runtime.getRuntime().availableProcessors();
-        javaVersion = System.getProperty("java.runtime.name") + ", " + System.getProperty("java.runtime.version");
-        jvmVersion = System.getProperty("java.vm.name") + ", " + System.getProperty("java.vm.version") + ", " + System.getProperty("java.vm.info");
-        jvmArguments = buildJvmArguments();
+        this(collectThreadInfo, collectProcessInfo, false);
+    }
 
-        pid = PID.getPID();
+    /**
+     * @param collectVirtualThreads whether to dump all threads to summarize the virtual threads (java 21+)
+     */
+    public SysInfo(boolean collectThreadInfo, boolean collectProcessInfo, boolean collectVirtualThreads) {
+        this(selectSections(collectThreadInfo, collectProcessInfo, collectVirtualThreads), false);
+    }
 
-        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
-        threadCount = threadBean.getThreadCount();
-        peakThreadCount = threadBean.getPeakThreadCount();
-        totalStartedThreadCount = threadBean.getTotalStartedThreadCount();
+    private SysInfo(Set<Section> sections, boolean lazy) {
+        this.sections = sections;
+        this.collected = EnumSet.noneOf(Section.class);
+        this.sectionLocks = new Object[Section.values().length];
+        for (int i = 0; i < sectionLocks.length; i++) {
+            sectionLocks[i] = new Object[0];
+        }
+        this.startDate = START_DATE;
+        this.pid = PID.getPID();
+        if (!lazy) {
+            for (Section section : sections) {
+                collect(section);
+            }
+        }
+    }
 
-        threadInfoList = collectThreadInfo ? ThreadInfo.buildThreadInfoList() : Collections.emptyList();
-        processInfoList = collectProcessInfo ? ProcessInfo.buildProcessInfoList() : Collections.emptyList();
+    /**
+     * Creates a snapshot whose sections are collected on first access and then memoized.
+     * Sections which are not selected are never collected and report -1, null or an empty list.
+     *
+     * @param sections the sections to collect, all sections but {@link Section#VIRTUAL_THREADS} if none is given
+     */
+    public static SysInfo lazy(Section... sections) {
+        Set<Section> selected = EnumSet.complementOf(EnumSet.of(Section.VIRTUAL_THREADS));
+        if (sections.length > 0) {
+            selected = EnumSet.noneOf(Section.class);
+            Collections.addAll(selected, sections);
+        }
+        return new SysInfo(selected, true);
+    }
 
-        memoryInfo = new MemoryInfo();
-        systemLoadAverage = buildSystemLoadAverage();
-        processCpuTimeMillis = buildProcessCpuTimeMillis();
+    private static Set<Section> selectSections(boolean collectThreadInfo, boolean collectProcessInfo,
+                                               boolean collectVirtualThreads) {
+        Set<Section> sections = EnumSet.allOf(Section.class);
+        if (!collectThreadInfo) {
+            sections.remove(Section.THREAD_INFO);
+        }
+        if (!collectVirtualThreads) {
+            sections.remove(Section.VIRTUAL_THREADS);
+        }
+        if (!collectProcessInfo) {
+            sections.remove(Section.PROCESS_INFO);
+        }
+        return sections;
+    }
+
+    private void collect(Section section) {
+        if (!sections.contains(section)) {
+            return;
+        }
+        synchronized (sectionLocks[section.ordinal()]) {
+            if (!isCollected(section)) {
+                collectSection(section);
+                markCollected(section);
+            }
+        }
+    }
+
+    private synchronized boolean isCollected(Section section) {
+        return collected.contains(section);
+    }
+
+    private synchronized void markCollected(Section section) {
+        collected.add(section);
+    }
+
+    private void collectSection(Section section) {
+        switch (section) {
+            case HOST:
+                host = Parameters.getHostName() + '@' + Parameters.getHostAddress();
+                break;
+            case OS:
+                os = buildOS();
+                availableProcessors = Runtime.getRuntime().availableProcessors();
+                break;
+            case JVM:
+                javaVersion = System.getProperty("java.runtime.name") + ", " + System.getProperty("java.runtime.version");
+                jvmVersion = System.getProperty("java.vm.name") + ", " + System.getProperty("java.vm.version") + ", " + System.getProperty("java.vm.info");
+                jvmArguments = buildJvmArguments();
+                break;
+            case THREADS:
+                ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+                threadCount = threadBean.getThreadCount();
+                peakThreadCount = threadBean.getPeakThreadCount();
+                totalStartedThreadCount = threadBean.getTotalStartedThreadCount();
+                break;
+            case THREAD_INFO:
+                threadInfoList = ThreadInfo.buildThreadInfoList();
+                break;
+            case VIRTUAL_THREADS:
+                if (VirtualThreadCollector.isSupported()) {
+                    try {
+                        virtualThreadSummary = VirtualThreadCollector.collect();
+                    } catch (IOException e) {
+                        // no temporary file or no space left: the summary stays null, as before java 21
+                    }
+                }
+                break;
+            case PROCESS_INFO:
+                // bounded, a hung ps or /proc read does not block the snapshot;
+                // the list is sorted by pid once here rather than on each call to getProcessInfoList()
+                try {
+                    CommandResult<List<ProcessInfo>> result = ProcessInfo
+                            .buildProcessInfoListAsync(PROCESS_INFO_TIMEOUT_SECONDS, TimeUnit.SECONDS).join();
+                    processInfoList = result.getValue();
+                    processInfoComplete = result.isComplete();
+                } catch (CompletionException e) {
+                    // ps failed to start, or previous /proc reads are still hung: the snapshot goes on without
+                    processInfoList = Collections.emptyList();
+                    processInfoComplete = false;
+                }
+                break;
+            case MEMORY:
+                memoryInfo = new MemoryInfo();
+                break;
+            case CPU:
+                systemLoadAverage = buildSystemLoadAverage();
+                processCpuTimeMillis = buildProcessCpuTimeMillis();
+                break;
+            case FILE_DESCRIPTORS:
+                unixOpenFileDescriptorCount = buildOpenFileDescriptorCount();
+                unixMaxFileDescriptorCount = buildMaxFileDescriptorCount();
+                break;
+            case DISK:
+                freeDiskSpaceInTemp = Parameters.TEMPORARY_DIRECTORY.getFreeSpace();
+                break;
+            default:
+                throw new IllegalArgumentException(section.name());
+        }
+    }
 
-        unixOpenFileDescriptorCount = buildOpenFileDescriptorCount();
-        unixMaxFileDescriptorCount = buildMaxFileDescriptorCount();
-        freeDiskSpaceInTemp = Parameters.TEMPORARY_DIRECTORY.getFreeSpace();
+    /**
+     * @return the sections selected for this snapshot
+     */
+    public Set<Section> getSections() {
+        return Collections.unmodifiableSet(sections);
     }
 
     private static String buildOS() {
@@ -112,42 +276,24 @@ public class SysInfo implements Serializable {
         return sb.toString();
     }
 
-    private long buildProcessCpuTimeMillis() {
-        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
-        if (isSunOsMBean(operatingSystem)) {
+    static long buildProcessCpuTimeMillis() {
+        long processCpuTime = OperatingSystemMetrics.get(OperatingSystemMetrics.Counter.PROCESS_CPU_TIME);
+        if (processCpuTime >= 0) {
             // nanoseconds to milliseconds
-            return MemoryInfo.getLongFromOperatingSystem(operatingSystem, "getProcessCpuTime") / 1000000;
+            return processCpuTime / 1000000;
         }
         return -1;
     }
 
-    private long buildOpenFileDescriptorCount() {
-        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
-        if (isSunOsMBean(operatingSystem) && isSunUnixMBean(operatingSystem)) {
-            try {
-                return MemoryInfo.getLongFromOperatingSystem(operatingSystem, "getOpenFileDescriptorCount");
-            } catch (Error e) {
-                // pour issue 16 (using jsvc on ubuntu or debian)
-                return -1;
-            }
-        }
-        return -1;
+    static long buildOpenFileDescriptorCount() {
+        return OperatingSystemMetrics.get(OperatingSystemMetrics.Counter.OPEN_FILE_DESCRIPTOR_COUNT);
     }
 
-    private long buildMaxFileDescriptorCount() {
-        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
-        if (isSunOsMBean(operatingSystem) && isSunUnixMBean(operatingSystem)) {
-            try {
-                return MemoryInfo.getLongFromOperatingSystem(operatingSystem, "getMaxFileDescriptorCount");
-            } catch (Error e) {
-                // pour issue 16 (using jsvc on ubuntu or debian)
-                return -1;
-            }
-        }
-        return -1;
+    static long buildMaxFileDescriptorCount() {
+        return OperatingSystemMetrics.get(OperatingSystemMetrics.Counter.MAX_FILE_DESCRIPTOR_COUNT);
     }
 
-    private double buildSystemLoadAverage() {
+    static double buildSystemLoadAverage() {
         // System load average for the last minute.
         // The system load average is the sum of
         // the number of runnable entities queued to the available processors
@@ -171,46 +317,33 @@ public class SysInfo implements Serializable {
         return jvmArgs.toString();
     }
 
-    boolean isSunOsMBean(OperatingSystemMXBean operatingSystem) {
-        // on ne teste pas operatingSystem instanceof com.sun.management.OperatingSystemMXBean
-        // car le package com.sun n'existe à priori pas sur une jvm tierce
-        String className = operatingSystem.getClass().getName();
-        return "com.sun.management.OperatingSystem".equals(className)
-                || "com.sun.management.UnixOperatingSystem".equals(className)
-                // sun.management.OperatingSystemImpl pour java 8
-                || "sun.management.OperatingSystemImpl".equals(className);
-    }
-
-    boolean isSunUnixMBean(OperatingSystemMXBean operatingSystem) {
-        for (Class<?> inter : operatingSystem.getClass().getInterfaces()) {
-            if ("com.sun.management.UnixOperatingSystemMXBean".equals(inter.getName())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     public MemoryInfo getMemoryInfo() {
+        collect(Section.MEMORY);
         return memoryInfo;
     }
 
     public long getProcessCpuTimeMillis() {
+        collect(Section.CPU);
         return processCpuTimeMillis;
     }
 
     public double getSystemLoadAverage() {
+        collect(Section.CPU);
         return systemLoadAverage;
     }
 
     public long getUnixOpenFileDescriptorCount() {
+        collect(Section.FILE_DESCRIPTORS);
         return unixOpenFileDescriptorCount;
     }
 
     public long getUnixMaxFileDescriptorCount() {
+        collect(Section.FILE_DESCRIPTORS);
         return unixMaxFileDescriptorCount;
     }
 
     public double getUnixOpenFileDescriptorPercentage() {
+        collect(Section.FILE_DESCRIPTORS);
         if (unixOpenFileDescriptorCount >= 0) {
             return 100d * unixOpenFileDescriptorCount / unixMaxFileDescriptorCount;
         }
@@ -218,22 +351,27 @@ public class SysInfo implements Serializable {
     }
 
     public String getHost() {
+        collect(Section.HOST);
         return host;
     }
 
     public String getOs() {
+        collect(Section.OS);
         return os;
     }
 
     public int getAvailableProcessors() {
+        collect(Section.OS);
         return availableProcessors;
     }
 
     public String getJavaVersion() {
+        collect(Section.JVM);
         return javaVersion;
     }
 
     public String getJvmVersion() {
+        collect(Section.JVM);
         return jvmVersion;
     }
 
@@ -246,40 +384,77 @@ public class SysInfo implements Serializable {
     }
 
     public String getJvmArguments() {
+        collect(Section.JVM);
         return jvmArguments;
     }
 
     public long getFreeDiskSpaceInTemp() {
+        collect(Section.DISK);
         return freeDiskSpaceInTemp;
     }
 
+    /**
+     * @return the number of live threads, including the virtual threads when {@link Section#VIRTUAL_THREADS}
+     * is selected and supported; otherwise the platform threads only, which the ThreadMXBean counts
+     */
     public int getThreadCount() {
+        collect(Section.THREADS);
+        VirtualThreadSummary summary = getVirtualThreadSummary();
+        if (summary != null) {
+            // both counts from the same dump
+            long count = summary.getPlatformThreadCount() + summary.getVirtualThreadCount();
+            return (int) Math.min(count, Integer.MAX_VALUE);
+        }
         return threadCount;
     }
 
     public int getPeakThreadCount() {
+        collect(Section.THREADS);
         return peakThreadCount;
     }
 
     public long getTotalStartedThreadCount() {
+        collect(Section.THREADS);
         return totalStartedThreadCount;
     }
 
+    /**
+     * @return the platform threads; the virtual threads, possibly millions and without cpu time, are only
+     * summarized by {@link #getVirtualThreadSummary()}
+     */
     public List<ThreadInfo> getThreadInfoList() {
+        collect(Section.THREAD_INFO);
         // on trie sur demande (si affichage)
         List<ThreadInfo> result = new ArrayList<>(threadInfoList);
         Collections.sort(result);
         return Collections.unmodifiableList(result);
     }
 
+    /**
+     * @return the summary of all threads including the virtual threads, or null if {@link Section#VIRTUAL_THREADS}
+     * is not selected, before java 21 or if the thread dump could not be written
+     */
+    public VirtualThreadSummary getVirtualThreadSummary() {
+        collect(Section.VIRTUAL_THREADS);
+        return virtualThreadSummary;
+    }
+
     public List<ProcessInfo> getProcessInfoList() {
-        // on trie sur demande (si affichage)
-        List<ProcessInfo> result = new ArrayList<>(processInfoList);
-        Collections.sort(result);
-        return Collections.unmodifiableList(result);
+        collect(Section.PROCESS_INFO);
+        return processInfoList;
+    }
+
+    /**
+     * @return false if the process list was cut short because ps or /proc did not answer in time, or is
+     * empty because the collection failed
+     */
+    public boolean isProcessInfoComplete() {
+        collect(Section.PROCESS_INFO);
+        return processInfoComplete;
     }
 
     public boolean isStackTraceEnabled() {
+        collect(Section.THREAD_INFO);
         for (ThreadInfo threadInformations : threadInfoList) {
             List<StackTraceElement> stackTrace = threadInformations.getStackTrace();
             if (stackTrace != null && !stackTrace.isEmpty()) {
@@ -289,12 +464,22 @@ public class SysInfo implements Serializable {
         return false;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        for (Section section : sections) {
+            collect(section);
+        }
+        synchronized (this) {
+            out.defaultWriteObject();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public String toString() {
-        return getClass().getSimpleName() + "[pid=" + getPid() + ", host=" + getHost()
-                + ", javaVersion=" + getJavaVersion() + ']';
+        // only what is already collected, a lazy snapshot is not collected by logging it
+        return getClass().getSimpleName() + "[pid=" + getPid() + ", host=" + host
+                + ", javaVersion=" + javaVersion + ']';
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Shares {@link SysInfo} snapshots between concurrent callers.
+ * <p>
+ * A snapshot is reused until it is older than the configured max staleness. When a new
+ * snapshot is needed, only one caller collects it while the other callers wait for that
+ * collection and then reuse its result, so a burst of requests costs one collection.
+ */
+public class SysInfoProvider {
+
+    private final Supplier<SysInfo> collector;
+    private final long maxStalenessNanos;
+    private final AtomicReference<CompletableFuture<Snapshot>> inFlight = new AtomicReference<>();
+    private volatile Snapshot current;
+
+    private static final class Snapshot {
+        private final SysInfo sysInfo;
+        private final long nanoTime;
+
+        private Snapshot(SysInfo sysInfo, long nanoTime) {
+            this.sysInfo = sysInfo;
+            this.nanoTime = nanoTime;
+        }
+    }
+
+    public SysInfoProvider(long maxStaleness, TimeUnit unit) {
+        this(maxStaleness, unit, SysInfo::new);
+    }
+
+    public SysInfoProvider(long maxStaleness, TimeUnit unit, Supplier<SysInfo> collector) {
+        super();
+        if (maxStaleness < 0) {
+            throw new IllegalArgumentException("maxStaleness must not be negative: " + maxStaleness);
+        }
+        this.maxStalenessNanos = unit.toNanos(maxStaleness);
+        this.collector = collector;
+    }
+
+    /**
+     * Returns a snapshot no older than the max staleness, collecting a new one if needed.
+     * Concurrent callers share a single in-flight collection.
+     */
+    public SysInfo get() {
+        while (true) {
+            Snapshot snapshot = current;
+            if (isFresh(snapshot)) {
+                return snapshot.sysInfo;
+            }
+            CompletableFuture<Snapshot> future = inFlight.get();
+            if (future == null) {
+                CompletableFuture<Snapshot> collection = new CompletableFuture<>();
+                if (inFlight.compareAndSet(null, collection)) {
+                    return collect(collection).sysInfo;
+                }
+                // another caller started collecting in the meantime
+                continue;
+            }
+            return await(future).sysInfo;
+        }
+    }
+
+    /**
+     * @return the last collected snapshot whatever its age, or null if none was collected yet
+     */
+    public SysInfo getIfPresent() {
+        Snapshot snapshot = current;
+        return snapshot == null ? null : snapshot.sysInfo;
+    }
+
+    /**
+     * Discards the cached snapshot, the next call to {@link #get()} will collect a new one.
+     */
+    public void invalidate() {
+        current = null;
+    }
+
+    private boolean isFresh(Snapshot snapshot) {
+        return snapshot != null && System.nanoTime() - snapshot.nanoTime <= maxStalenessNanos;
+    }
+
+    private Snapshot collect(CompletableFuture<Snapshot> collection) {
+        try {
+            Snapshot snapshot = current;
+            if (!isFresh(snapshot)) {
+                // the age is counted from the start of the collection
+                long start = System.nanoTime();
+                snapshot = new Snapshot(collector.get(), start);
+                current = snapshot;
+            }
+            collection.complete(snapshot);
+            return snapshot;
+        } catch (RuntimeException | Error e) {
+            collection.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.compareAndSet(collection, null);
+        }
+    }
+
+    private static Snapshot await(CompletableFuture<Snapshot> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[maxStalenessMillis=" + TimeUnit.NANOSECONDS.toMillis(maxStalenessNanos) + ']';
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples the numeric counters of {@link SysInfo} and {@link MemoryInfo}
+ * into fixed-size ring buffers.
+ * <p>
+ * The buffers are allocated once, so a sample does not create a snapshot, a thread list
+ * or any other per-sample object. Readers copy the history, oldest first, into arrays
+ * they own and may reuse.
+ */
+public class SysInfoSampler {
+
+    public enum Metric {
+        USED_MEMORY,
+        GARBAGE_COLLECTION_TIME_MILLIS,
+        PROCESS_CPU_TIME_MILLIS,
+        UNIX_OPEN_FILE_DESCRIPTOR_COUNT,
+        THREAD_COUNT,
+        DAEMON_THREAD_COUNT,
+        PEAK_THREAD_COUNT
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final long[][] values;
+    private final double[] systemLoadAverages;
+    private final ThreadMXBean threadBean;
+    private int next;
+    private int size;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+
+    public SysInfoSampler(int capacity) {
+        super();
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.values = new long[METRICS.length][capacity];
+        this.systemLoadAverages = new double[capacity];
+        this.threadBean = ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Starts sampling on a daemon thread at a fixed rate.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (future != null) {
+            throw new IllegalStateException("sampler already started");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "sysinfo-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        future = executor.scheduleAtFixedRate(this::sample, 0, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Takes one sample and appends it to the history, overwriting the oldest sample when full.
+     */
+    public void sample() {
+        Runtime runtime = Runtime.getRuntime();
+        long timestamp = System.currentTimeMillis();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        long garbageCollectionTime = MemoryInfo.buildGarbageCollectionTimeMillis();
+        long processCpuTime = SysInfo.buildProcessCpuTimeMillis();
+        long openFileDescriptors = SysInfo.buildOpenFileDescriptorCount();
+        double systemLoadAverage = SysInfo.buildSystemLoadAverage();
+        long threadCount = threadBean.getThreadCount();
+        long daemonThreadCount = threadBean.getDaemonThreadCount();
+        long peakThreadCount = threadBean.getPeakThreadCount();
+
+        synchronized (this) {
+            int slot = next;
+            timestamps[slot] = timestamp;
+            values[Metric.USED_MEMORY.ordinal()][slot] = usedMemory;
+            values[Metric.GARBAGE_COLLECTION_TIME_MILLIS.ordinal()][slot] = garbageCollectionTime;
+            values[Metric.PROCESS_CPU_TIME_MILLIS.ordinal()][slot] = processCpuTime;
+            values[Metric.UNIX_OPEN_FILE_DESCRIPTOR_COUNT.ordinal()][slot] = openFileDescriptors;
+            values[Metric.THREAD_COUNT.ordinal()][slot] = threadCount;
+            values[Metric.DAEMON_THREAD_COUNT.ordinal()][slot] = daemonThreadCount;
+            values[Metric.PEAK_THREAD_COUNT.ordinal()][slot] = peakThreadCount;
+            systemLoadAverages[slot] = systemLoadAverage;
+            next = (slot + 1) % capacity;
+            if (size < capacity) {
+                size++;
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of the most recent sample, or -1 if nothing was sampled yet
+     */
+    public synchronized long getLatest(Metric metric) {
+        if (size == 0) {
+            return -1;
+        }
+        return values[metric.ordinal()][(next - 1 + capacity) % capacity];
+    }
+
+    /**
+     * @return the system load average of the most recent sample, or -1 if nothing was sampled yet
+     */
+    public synchronized double getLatestSystemLoadAverage() {
+        if (size == 0) {
+            return -1d;
+        }
+        return systemLoadAverages[(next - 1 + capacity) % capacity];
+    }
+
+    /**
+     * Copies the sample timestamps, oldest first. If {@code dest} is shorter than the history
+     * only the most recent samples are copied.
+     *
+     * @return the number of copied samples
+     */
+    public synchronized int copyTimestamps(long[] dest) {
+        return copy(timestamps, dest);
+    }
+
+    /**
+     * Copies the history of a metric, oldest first, aligned with {@link #copyTimestamps(long[])}.
+     *
+     * @return the number of copied samples
+     */
+    public synchronized int copy(Metric metric, long[] dest) {
+        return copy(values[metric.ordinal()], dest);
+    }
+
+    /**
+     * Copies the system load average history, oldest first, aligned with {@link #copyTimestamps(long[])}.
+     *
+     * @return the number of copied samples
+     */
+    public synchronized int copySystemLoadAverages(double[] dest) {
+        return copy(systemLoadAverages, dest, dest.length);
+    }
+
+    private int copy(long[] source, long[] dest) {
+        return copy(source, dest, dest.length);
+    }
+
+    /**
+     * @param source a long[] or a double[] ring, and {@code dest} an array of the same type
+     */
+    private int copy(Object source, Object dest, int destLength) {
+        int count = Math.min(size, destLength);
+        int first = (next - count + capacity) % capacity;
+        int head = Math.min(count, capacity - first);
+        System.arraycopy(source, first, dest, 0, head);
+        System.arraycopy(source, 0, dest, head, count - head);
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[capacity=" + getCapacity() + ", size=" + size() + ']';
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+
+/**
+ * A thread with the bytes it allocated during the interval between two samples of a
+ * {@link ThreadAllocationSampler}.
+ */
+public class ThreadAllocationRate implements Serializable, Comparable<ThreadAllocationRate> {
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+    private final String name;
+    private final String pool;
+    private final long allocatedBytes;
+    private final long intervalAllocatedBytes;
+    private final long intervalMillis;
+
+    ThreadAllocationRate(long id, String name, String pool, long allocatedBytes, long intervalAllocatedBytes,
+                         long intervalMillis) {
+        super();
+        this.id = id;
+        this.name = name;
+        this.pool = pool;
+        this.allocatedBytes = allocatedBytes;
+        this.intervalAllocatedBytes = intervalAllocatedBytes;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the name of the thread with its last number replaced by {@code *}, shared by the threads of a pool
+     */
+    public String getPool() {
+        return pool;
+    }
+
+    /**
+     * @return the bytes allocated by the thread since its start
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return the bytes allocated during the interval, or -1 if unknown on the first sample
+     */
+    public long getIntervalAllocatedBytes() {
+        return intervalAllocatedBytes;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return the bytes allocated per second during the interval, or -1 if unknown
+     */
+    public long getBytesPerSecond() {
+        if (intervalAllocatedBytes < 0 || intervalMillis <= 0) {
+            return -1;
+        }
+        return intervalAllocatedBytes * 1000 / intervalMillis;
+    }
+
+    /**
+     * Orders by decreasing bytes allocated during the interval.
+     */
+    @Override
+    public int compareTo(ThreadAllocationRate o) {
+        int result = Long.compare(o.intervalAllocatedBytes, intervalAllocatedBytes);
+        return result != 0 ? result : Long.compare(id, o.id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[id=" + id + ", name=" + name + ", bytesPerSecond="
+                + getBytesPerSecond() + ']';
+    }
+}
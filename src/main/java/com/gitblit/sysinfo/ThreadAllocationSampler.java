@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the allocation rate of each thread, and of each thread pool, from two successive
+ * readings of the bytes allocated by the threads.
+ * <p>
+ * The allocated bytes of all threads are read with one batched call of
+ * com.sun.management.ThreadMXBean. The ids are sorted before the reading, so that the values of
+ * the previous sample are found by binary search without boxing.
+ */
+public class ThreadAllocationSampler {
+
+    private long[] previousIds = new long[0];
+    private long[] previousAllocatedBytes = new long[0];
+    private long previousNanos = -1;
+    private List<ThreadAllocationRate> lastSample = Collections.emptyList();
+
+    public ThreadAllocationSampler() {
+        super();
+    }
+
+    /**
+     * @return whether the jvm measures the bytes allocated by the threads
+     */
+    public static boolean isSupported() {
+        return ThreadMXBeans.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Reads the bytes allocated by the threads and computes their allocation since the previous call.
+     * On the first call, the interval values are unknown (-1).
+     *
+     * @return the threads by decreasing allocation during the interval, empty if not supported
+     */
+    public synchronized List<ThreadAllocationRate> sample() {
+        if (!isSupported()) {
+            return Collections.emptyList();
+        }
+        long[] ids = ThreadMXBeans.THREAD_BEAN.getAllThreadIds();
+        Arrays.sort(ids);
+        long[] allocatedBytes = ThreadMXBeans.getThreadAllocatedBytes(ids);
+        long now = System.nanoTime();
+        java.lang.management.ThreadInfo[] threadInfos = ThreadMXBeans.THREAD_BEAN.getThreadInfo(ids, 0);
+        long intervalMillis = previousNanos < 0 ? -1 : (now - previousNanos) / 1000000;
+        Map<String, String> pools = new HashMap<>();
+        List<ThreadAllocationRate> rates = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            java.lang.management.ThreadInfo threadInfo = threadInfos[i];
+            if (threadInfo == null || allocatedBytes[i] < 0) {
+                // terminated since the ids were read
+                continue;
+            }
+            long intervalAllocatedBytes = -1;
+            if (previousNanos >= 0) {
+                int previous = Arrays.binarySearch(previousIds, ids[i]);
+                // a thread started during the interval allocated all its bytes in the interval
+                long start = previous >= 0 ? previousAllocatedBytes[previous] : 0;
+                intervalAllocatedBytes = Math.max(0, allocatedBytes[i] - start);
+            }
+            String name = threadInfo.getThreadName();
+            String pool = pools.get(name);
+            if (pool == null) {
+                pool = ThreadNames.normalize(name);
+                pools.put(name, pool);
+            }
+            rates.add(new ThreadAllocationRate(ids[i], name, pool, allocatedBytes[i], intervalAllocatedBytes,
+                    intervalMillis));
+        }
+        Collections.sort(rates);
+        previousIds = ids;
+        previousAllocatedBytes = allocatedBytes;
+        previousNanos = now;
+        lastSample = Collections.unmodifiableList(rates);
+        return lastSample;
+    }
+
+    /**
+     * @return the result of the last call to {@link #sample()}
+     */
+    public synchronized List<ThreadAllocationRate> getLastSample() {
+        return lastSample;
+    }
+
+    /**
+     * Sums the allocation rates of the last sample by thread pool.
+     *
+     * @return the bytes allocated per second by the threads of each pool, by decreasing rate
+     */
+    public synchronized Map<String, Long> getBytesPerSecondByPool() {
+        Map<String, long[]> totals = new HashMap<>();
+        for (ThreadAllocationRate rate : lastSample) {
+            long bytesPerSecond = rate.getBytesPerSecond();
+            if (bytesPerSecond < 0) {
+                continue;
+            }
+            long[] total = totals.get(rate.getPool());
+            if (total == null) {
+                total = new long[1];
+                totals.put(rate.getPool(), total);
+            }
+            total[0] += bytesPerSecond;
+        }
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(totals.entrySet());
+        Collections.sort(entries, (e1, e2) -> Long.compare(e2.getValue()[0], e1.getValue()[0]));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : entries) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[threadCount=" + getLastSample().size() + ']';
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+/**
+ * What to capture for each thread with {@link ThreadInfo#buildThreadInfoList(ThreadCaptureOptions)}.
+ * <p>
+ * Bounding the stack depth keeps the safepoint short and the garbage small with deep stacks,
+ * and a state-only capture takes no stack trace at all.
+ */
+public final class ThreadCaptureOptions {
+    /** unbounded stack depth */
+    public static final int FULL_DEPTH = Integer.MAX_VALUE;
+
+    private int maxDepth = FULL_DEPTH;
+    private boolean lockedMonitors;
+    private boolean lockedSynchronizers;
+    private boolean cpuTime = true;
+    private boolean allocatedBytes = true;
+
+    public ThreadCaptureOptions() {
+        super();
+    }
+
+    /**
+     * Only the name, state and lock of the threads: no stack trace, no locked monitors.
+     */
+    public static ThreadCaptureOptions stateOnly() {
+        return new ThreadCaptureOptions().maxDepth(0);
+    }
+
+    /**
+     * @param maxDepth the maximum number of frames of each stack trace, 0 for none
+     */
+    public ThreadCaptureOptions maxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth must not be negative: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Also captures the object monitors held by each thread, if supported by the jvm.
+     * Only the monitors locked in the captured frames are reported.
+     */
+    public ThreadCaptureOptions lockedMonitors(boolean lockedMonitors) {
+        this.lockedMonitors = lockedMonitors;
+        return this;
+    }
+
+    /**
+     * Also captures the ownable synchronizers (such as ReentrantLock) held by each thread, if supported by the jvm.
+     */
+    public ThreadCaptureOptions lockedSynchronizers(boolean lockedSynchronizers) {
+        this.lockedSynchronizers = lockedSynchronizers;
+        return this;
+    }
+
+    /**
+     * Reads the cpu and user time of each thread, true by default.
+     */
+    public ThreadCaptureOptions cpuTime(boolean cpuTime) {
+        this.cpuTime = cpuTime;
+        return this;
+    }
+
+    /**
+     * Reads the bytes allocated by each thread, true by default. Only supported with com.sun.management.
+     */
+    public ThreadCaptureOptions allocatedBytes(boolean allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+        return this;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    boolean isLockedMonitors() {
+        return lockedMonitors;
+    }
+
+    boolean isLockedSynchronizers() {
+        return lockedSynchronizers;
+    }
+
+    boolean isCpuTime() {
+        return cpuTime;
+    }
+
+    boolean isAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[maxDepth=" + maxDepth + ", lockedMonitors=" + lockedMonitors
+                + ", lockedSynchronizers=" + lockedSynchronizers + ", cpuTime=" + cpuTime
+                + ", allocatedBytes=" + allocatedBytes + ']';
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread dump where identical frames and identical stacks are stored once.
+ * <p>
+ * Frames are interned into a frame table, stacks into a stack table of frame ids, and each thread
+ * only references the id of its stack. The threads sharing a stack, typically the idle threads of
+ * a pool, are listed with {@link #getIdenticalStackGroups(int)}. The serialized form writes the
+ * tables rather than the objects: strings once, frames and stacks as ids.
+ */
+public final class ThreadDump implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // class, method, file, class loader, module and module version
+    private static final int FRAME_STRINGS = 6;
+    private static final Thread.State[] STATES = Thread.State.values();
+    // java 9+, the class loader and the module of a frame are part of its equality
+    private static final MethodHandle GET_CLASS_LOADER_NAME = findFrameGetter("getClassLoaderName");
+    private static final MethodHandle GET_MODULE_NAME = findFrameGetter("getModuleName");
+    private static final MethodHandle GET_MODULE_VERSION = findFrameGetter("getModuleVersion");
+    private static final MethodHandle NEW_FRAME_WITH_MODULE = findFrameConstructor();
+
+    private transient StackTraceElement[] frames;
+    private transient int[][] stacks;
+    private transient List<StackTraceElement>[] stackLists;
+    private transient long[] threadIds;
+    private transient String[] threadNames;
+    private transient Thread.State[] threadStates;
+    private transient long[] threadCpuTimeMillis;
+    private transient int[] threadStackIds;
+
+    /**
+     * Threads sharing an identical stack.
+     */
+    public static final class StackGroup implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int stackId;
+        private final List<StackTraceElement> stack;
+        private final long[] threadIds;
+        private final List<String> threadNames;
+
+        private StackGroup(int stackId, List<StackTraceElement> stack, long[] threadIds, List<String> threadNames) {
+            this.stackId = stackId;
+            this.stack = stack;
+            this.threadIds = threadIds;
+            this.threadNames = threadNames;
+        }
+
+        public int getStackId() {
+            return stackId;
+        }
+
+        public List<StackTraceElement> getStack() {
+            return stack;
+        }
+
+        public int getThreadCount() {
+            return threadIds.length;
+        }
+
+        public long[] getThreadIds() {
+            return threadIds.clone();
+        }
+
+        public List<String> getThreadNames() {
+            return Collections.unmodifiableList(threadNames);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[stackId=" + stackId + ", threadCount=" + getThreadCount()
+                    + ", top=" + (stack.isEmpty() ? "" : stack.get(0)) + ']';
+        }
+    }
+
+    private ThreadDump() {
+        super();
+    }
+
+    /**
+     * Captures the threads and builds the dump.
+     */
+    public static ThreadDump capture(ThreadCaptureOptions options) {
+        return of(ThreadInfo.buildThreadInfoList(options));
+    }
+
+    /**
+     * Builds the dump from captured threads, interning their frames and stacks.
+     */
+    public static ThreadDump of(List<ThreadInfo> threadInfos) {
+        ThreadDump dump = new ThreadDump();
+        int count = threadInfos.size();
+        dump.threadIds = new long[count];
+        dump.threadNames = new String[count];
+        dump.threadStates = new Thread.State[count];
+        dump.threadCpuTimeMillis = new long[count];
+        dump.threadStackIds = new int[count];
+        Map<StackTraceElement, Integer> frameIds = new HashMap<>();
+        List<StackTraceElement> frames = new ArrayList<>();
+        Map<StackKey, Integer> stackIds = new HashMap<>();
+        List<int[]> stacks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ThreadInfo threadInfo = threadInfos.get(i);
+            dump.threadIds[i] = threadInfo.getId();
+            dump.threadNames[i] = threadInfo.getName();
+            dump.threadStates[i] = threadInfo.getState();
+            dump.threadCpuTimeMillis[i] = threadInfo.getCpuTimeMillis();
+            List<StackTraceElement> stackTrace = threadInfo.getStackTrace();
+            if (stackTrace == null) {
+                dump.threadStackIds[i] = -1;
+                continue;
+            }
+            int[] stack = new int[stackTrace.size()];
+            for (int j = 0; j < stack.length; j++) {
+                StackTraceElement frame = stackTrace.get(j);
+                Integer frameId = frameIds.get(frame);
+                if (frameId == null) {
+                    frameId = frames.size();
+                    frameIds.put(frame, frameId);
+                    frames.add(frame);
+                }
+                stack[j] = frameId;
+            }
+            StackKey key = new StackKey(stack);
+            Integer stackId = stackIds.get(key);
+            if (stackId == null) {
+                stackId = stacks.size();
+                stackIds.put(key, stackId);
+                stacks.add(stack);
+            }
+            dump.threadStackIds[i] = stackId;
+        }
+        dump.frames = frames.toArray(new StackTraceElement[0]);
+        dump.stacks = stacks.toArray(new int[0][]);
+        dump.buildStackLists();
+        return dump;
+    }
+
+    /**
+     * Key of the stack table: the frame ids of a stack.
+     */
+    private static final class StackKey {
+        private final int[] frameIds;
+        private final int hash;
+
+        StackKey(int[] frameIds) {
+            this.frameIds = frameIds;
+            this.hash = Arrays.hashCode(frameIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof StackKey && Arrays.equals(frameIds, ((StackKey) obj).frameIds);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void buildStackLists() {
+        stackLists = (List<StackTraceElement>[]) new List<?>[stacks.length];
+        for (int i = 0; i < stacks.length; i++) {
+            int[] stack = stacks[i];
+            StackTraceElement[] elements = new StackTraceElement[stack.length];
+            for (int j = 0; j < stack.length; j++) {
+                elements[j] = frames[stack[j]];
+            }
+            stackLists[i] = Collections.unmodifiableList(Arrays.asList(elements));
+        }
+    }
+
+    public int getThreadCount() {
+        return threadIds.length;
+    }
+
+    /**
+     * @return the number of distinct stacks
+     */
+    public int getStackCount() {
+        return stacks.length;
+    }
+
+    /**
+     * @return the number of distinct frames
+     */
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    public long getThreadId(int index) {
+        return threadIds[index];
+    }
+
+    public String getThreadName(int index) {
+        return threadNames[index];
+    }
+
+    public Thread.State getThreadState(int index) {
+        return threadStates[index];
+    }
+
+    /**
+     * @return the cpu time of the thread in milliseconds, or -1 if unknown
+     */
+    public long getThreadCpuTimeMillis(int index) {
+        return threadCpuTimeMillis[index];
+    }
+
+    /**
+     * @return the id of the stack of the thread, or -1 if its stack was not captured
+     */
+    public int getStackId(int index) {
+        return threadStackIds[index];
+    }
+
+    /**
+     * @return the stack, shared by all the threads referencing it
+     */
+    public List<StackTraceElement> getStack(int stackId) {
+        return stackLists[stackId];
+    }
+
+    /**
+     * @return the stack of the thread, or null if not captured
+     */
+    public List<StackTraceElement> getThreadStack(int index) {
+        int stackId = threadStackIds[index];
+        return stackId < 0 ? null : stackLists[stackId];
+    }
+
+    /**
+     * Lists the stacks shared by at least {@code minThreadCount} threads, by decreasing number of threads.
+     */
+    public List<StackGroup> getIdenticalStackGroups(int minThreadCount) {
+        int[] threadCounts = new int[stacks.length];
+        for (int stackId : threadStackIds) {
+            if (stackId >= 0) {
+                threadCounts[stackId]++;
+            }
+        }
+        // the threads of each stack, in thread order, from the offsets of a counting sort
+        int[] offsets = new int[stacks.length + 1];
+        for (int i = 0; i < stacks.length; i++) {
+            offsets[i + 1] = offsets[i] + threadCounts[i];
+        }
+        int[] threadIndexes = new int[offsets[stacks.length]];
+        int[] positions = Arrays.copyOf(offsets, stacks.length);
+        for (int i = 0; i < threadStackIds.length; i++) {
+            int stackId = threadStackIds[i];
+            if (stackId >= 0) {
+                threadIndexes[positions[stackId]++] = i;
+            }
+        }
+        List<StackGroup> groups = new ArrayList<>();
+        for (int stackId = 0; stackId < stacks.length; stackId++) {
+            int threadCount = threadCounts[stackId];
+            if (threadCount < Math.max(1, minThreadCount)) {
+                continue;
+            }
+            long[] ids = new long[threadCount];
+            List<String> names = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                int index = threadIndexes[offsets[stackId] + i];
+                ids[i] = threadIds[index];
+                names.add(threadNames[index]);
+            }
+            groups.add(new StackGroup(stackId, stackLists[stackId], ids, names));
+        }
+        Collections.sort(groups, (g1, g2) -> Integer.compare(g2.getThreadCount(), g1.getThreadCount()));
+        return groups;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        // strings of the frames are written once each
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] frameStrings = new int[frames.length * FRAME_STRINGS];
+        for (int i = 0; i < frames.length; i++) {
+            StackTraceElement frame = frames[i];
+            int offset = i * FRAME_STRINGS;
+            frameStrings[offset] = internString(frame.getClassName(), stringIds, strings);
+            frameStrings[offset + 1] = internString(frame.getMethodName(), stringIds, strings);
+            frameStrings[offset + 2] = internString(frame.getFileName(), stringIds, strings);
+            frameStrings[offset + 3] = internString(getFrameString(GET_CLASS_LOADER_NAME, frame), stringIds, strings);
+            frameStrings[offset + 4] = internString(getFrameString(GET_MODULE_NAME, frame), stringIds, strings);
+            frameStrings[offset + 5] = internString(getFrameString(GET_MODULE_VERSION, frame), stringIds, strings);
+        }
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+        out.writeInt(frames.length);
+        for (int i = 0; i < frames.length; i++) {
+            for (int j = 0; j < FRAME_STRINGS; j++) {
+                out.writeInt(frameStrings[i * FRAME_STRINGS + j]);
+            }
+            out.writeInt(frames[i].getLineNumber());
+        }
+        out.writeInt(stacks.length);
+        for (int[] stack : stacks) {
+            out.writeInt(stack.length);
+            for (int frameId : stack) {
+                out.writeInt(frameId);
+            }
+        }
+        out.writeInt(threadIds.length);
+        for (int i = 0; i < threadIds.length; i++) {
+            out.writeLong(threadIds[i]);
+            out.writeUTF(threadNames[i]);
+            out.writeByte(threadStates[i] == null ? -1 : threadStates[i].ordinal());
+            out.writeLong(threadCpuTimeMillis[i]);
+            out.writeInt(threadStackIds[i]);
+        }
+    }
+
+    private static int internString(String string, Map<String, Integer> stringIds, List<String> strings) {
+        if (string == null) {
+            return -1;
+        }
+        Integer id = stringIds.get(string);
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(string, id);
+            strings.add(string);
+        }
+        return id;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        frames = new StackTraceElement[in.readInt()];
+        String[] frameStrings = new String[FRAME_STRINGS];
+        for (int i = 0; i < frames.length; i++) {
+            for (int j = 0; j < FRAME_STRINGS; j++) {
+                int stringId = in.readInt();
+                frameStrings[j] = stringId < 0 ? null : strings[stringId];
+            }
+            frames[i] = newFrame(frameStrings, in.readInt());
+        }
+        stacks = new int[in.readInt()][];
+        for (int i = 0; i < stacks.length; i++) {
+            int[] stack = new int[in.readInt()];
+            for (int j = 0; j < stack.length; j++) {
+                stack[j] = in.readInt();
+            }
+            stacks[i] = stack;
+        }
+        int threadCount = in.readInt();
+        threadIds = new long[threadCount];
+        threadNames = new String[threadCount];
+        threadStates = new Thread.State[threadCount];
+        threadCpuTimeMillis = new long[threadCount];
+        threadStackIds = new int[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threadIds[i] = in.readLong();
+            threadNames[i] = in.readUTF();
+            int state = in.readByte();
+            threadStates[i] = state < 0 ? null : STATES[state];
+            threadCpuTimeMillis[i] = in.readLong();
+            threadStackIds[i] = in.readInt();
+        }
+        buildStackLists();
+    }
+
+    private static StackTraceElement newFrame(String[] frameStrings, int lineNumber) {
+        if (NEW_FRAME_WITH_MODULE == null) {
+            return new StackTraceElement(frameStrings[0], frameStrings[1], frameStrings[2], lineNumber);
+        }
+        try {
+            return (StackTraceElement) NEW_FRAME_WITH_MODULE.invokeExact(frameStrings[3], frameStrings[4],
+                    frameStrings[5], frameStrings[0], frameStrings[1], frameStrings[2], lineNumber);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static String getFrameString(MethodHandle getter, StackTraceElement frame) {
+        if (getter == null) {
+            return null;
+        }
+        try {
+            return (String) getter.invokeExact(frame);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static MethodHandle findFrameGetter(String name) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(StackTraceElement.class, name,
+                    MethodType.methodType(String.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle findFrameConstructor() {
+        try {
+            return MethodHandles.publicLookup().findConstructor(StackTraceElement.class,
+                    MethodType.methodType(void.class, String.class, String.class, String.class, String.class,
+                            String.class, String.class, int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[threadCount=" + getThreadCount() + ", stackCount=" + getStackCount()
+                + ", frameCount=" + getFrameCount() + ']';
+    }
+}
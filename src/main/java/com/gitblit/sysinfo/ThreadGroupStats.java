@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated statistics of a group of threads built by {@link ThreadGrouping}.
+ */
+public class ThreadGroupStats implements Comparable<ThreadGroupStats> {
+    private static final Thread.State[] STATES = Thread.State.values();
+
+    private final String name;
+    private final List<ThreadInfo> threads;
+    private final int[] stateCounts;
+    private final long cpuTimeMillis;
+    private final List<StackTraceElement> representativeStack;
+    private final int representativeStackCount;
+
+    ThreadGroupStats(String name, List<ThreadInfo> threads, int[] stateCounts, long cpuTimeMillis,
+                     List<StackTraceElement> representativeStack, int representativeStackCount) {
+        super();
+        this.name = name;
+        this.threads = threads;
+        this.stateCounts = stateCounts;
+        this.cpuTimeMillis = cpuTimeMillis;
+        this.representativeStack = representativeStack;
+        this.representativeStackCount = representativeStackCount;
+    }
+
+    /**
+     * @return the name of the rule, or the normalized name of the threads
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getThreadCount() {
+        return threads.size();
+    }
+
+    /**
+     * @return the threads of the group, the same instances as in the snapshot
+     */
+    public List<ThreadInfo> getThreads() {
+        return Collections.unmodifiableList(threads);
+    }
+
+    public int getCount(Thread.State state) {
+        return stateCounts[state.ordinal()];
+    }
+
+    /**
+     * @return the cpu time of the threads of the group, without the threads whose cpu time is unknown
+     */
+    public long getCpuTimeMillis() {
+        return cpuTimeMillis;
+    }
+
+    /**
+     * @return the most frequent stack in the group, shared with the snapshot, or null if no stack was captured
+     */
+    public List<StackTraceElement> getRepresentativeStack() {
+        return representativeStack;
+    }
+
+    /**
+     * @return the number of threads of the group with the representative stack
+     */
+    public int getRepresentativeStackCount() {
+        return representativeStackCount;
+    }
+
+    /**
+     * Orders by decreasing thread count.
+     */
+    @Override
+    public int compareTo(ThreadGroupStats o) {
+        int result = Integer.compare(o.getThreadCount(), getThreadCount());
+        return result != 0 ? result : name.compareTo(o.name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder states = new StringBuilder();
+        for (Thread.State state : STATES) {
+            if (stateCounts[state.ordinal()] > 0) {
+                if (states.length() > 0) {
+                    states.append(", ");
+                }
+                states.append(state).append('=').append(stateCounts[state.ordinal()]);
+            }
+        }
+        return getClass().getSimpleName() + "[name=" + name + ", threadCount=" + getThreadCount() + ", states={"
+                + states + "}, cpuTimeMillis=" + cpuTimeMillis + ']';
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Groups the threads of a snapshot by pool: by the first matching rule, or else by the name of
+ * the thread with its last number replaced by {@code *} ("pool-3-thread-17" in "pool-3-thread-*").
+ * <p>
+ * The grouping is a single pass over the threads. Stacks are not copied: the threads and the
+ * representative stack of a group are the instances of the snapshot.
+ */
+public class ThreadGrouping {
+    private static final int STATE_COUNT = Thread.State.values().length;
+
+    private final List<String> ruleNames = new ArrayList<>();
+    private final List<Predicate<String>> rules = new ArrayList<>();
+
+    public ThreadGrouping() {
+        super();
+    }
+
+    /**
+     * Groups the threads whose name is accepted by the predicate under {@code groupName}.
+     * Rules are evaluated in the order they are added.
+     */
+    public ThreadGrouping rule(String groupName, Predicate<String> threadNameMatcher) {
+        ruleNames.add(groupName);
+        rules.add(threadNameMatcher);
+        return this;
+    }
+
+    /**
+     * Groups the threads whose name matches the regular expression under {@code groupName}.
+     */
+    public ThreadGrouping rule(String groupName, String threadNameRegex) {
+        Pattern pattern = Pattern.compile(threadNameRegex);
+        return rule(groupName, name -> pattern.matcher(name).matches());
+    }
+
+    /**
+     * @return the groups by decreasing thread count
+     */
+    public List<ThreadGroupStats> group(List<ThreadInfo> threads) {
+        Map<String, Accumulator> accumulators = new HashMap<>();
+        // many threads share a name pattern, the group of a name is computed once
+        Map<String, String> groupNames = new HashMap<>();
+        for (ThreadInfo thread : threads) {
+            String threadName = thread.getName();
+            String groupName = groupNames.get(threadName);
+            if (groupName == null) {
+                groupName = groupName(threadName);
+                groupNames.put(threadName, groupName);
+            }
+            Accumulator accumulator = accumulators.get(groupName);
+            if (accumulator == null) {
+                accumulator = new Accumulator();
+                accumulators.put(groupName, accumulator);
+            }
+            accumulator.add(thread);
+        }
+        List<ThreadGroupStats> groups = new ArrayList<>(accumulators.size());
+        for (Map.Entry<String, Accumulator> entry : accumulators.entrySet()) {
+            groups.add(entry.getValue().toStats(entry.getKey()));
+        }
+        Collections.sort(groups);
+        return groups;
+    }
+
+    private String groupName(String threadName) {
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).test(threadName)) {
+                return ruleNames.get(i);
+            }
+        }
+        return ThreadNames.normalize(threadName);
+    }
+
+    /**
+     * Running totals of a group.
+     */
+    private static final class Accumulator {
+        private final List<ThreadInfo> threads = new ArrayList<>();
+        private final int[] stateCounts = new int[STATE_COUNT];
+        private long cpuTimeMillis;
+        // identical stacks are counted by their list: each thread hashes its whole stack, and a stack
+        // already seen is compared with it frame by frame (ThreadDump interns the stacks once instead)
+        private final Map<List<StackTraceElement>, int[]> stackCounts = new HashMap<>();
+        private List<StackTraceElement> representativeStack;
+        private int representativeStackCount;
+
+        Accumulator() {
+            super();
+        }
+
+        void add(ThreadInfo thread) {
+            threads.add(thread);
+            if (thread.getState() != null) {
+                stateCounts[thread.getState().ordinal()]++;
+            }
+            if (thread.getCpuTimeMillis() > 0) {
+                cpuTimeMillis += thread.getCpuTimeMillis();
+            }
+            List<StackTraceElement> stack = thread.getStackTrace();
+            if (stack != null) {
+                int[] count = stackCounts.get(stack);
+                if (count == null) {
+                    count = new int[1];
+                    stackCounts.put(stack, count);
+                }
+                count[0]++;
+                if (count[0] > representativeStackCount) {
+                    representativeStack = stack;
+                    representativeStackCount = count[0];
+                }
+            }
+        }
+
+        ThreadGroupStats toStats(String name) {
+            return new ThreadGroupStats(name, threads, stateCounts, cpuTimeMillis, representativeStack,
+                    representativeStackCount);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[rules=" + ruleNames + ']';
+    }
+}
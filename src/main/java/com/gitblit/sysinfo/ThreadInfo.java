@@ -18,11 +18,14 @@
 package com.gitblit.sysinfo;
 
 import java.io.Serializable;
+import java.lang.management.LockInfo;
 import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
 import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -43,26 +46,56 @@ public class ThreadInfo implements Serializable, Comparable<ThreadInfo> {
     private final Thread.State state;
     private final long cpuTimeMillis;
     private final long userTimeMillis;
+    private final long allocatedBytes;
+    private final long blockedCount;
+    private final long blockedTimeMillis;
+    private final long waitedCount;
+    private final long waitedTimeMillis;
     private final boolean deadlocked;
     private final String globalThreadId;
     private final List<StackTraceElement> stackTrace;
+    private final String lockName;
+    private final long lockOwnerId;
+    private final List<String> lockedMonitors;
+    private final List<String> lockedSynchronizers;
 
     ThreadInfo(Thread thread, List<StackTraceElement> stackTrace, long cpuTimeMillis, long userTimeMillis,
-               boolean deadlocked, String hostAddress) {
+               long allocatedBytes, boolean deadlocked, String hostAddress) {
+        this(thread.getName(), thread.getId(), thread.getPriority(), thread.isDaemon(), thread.getState(),
+                stackTrace, cpuTimeMillis, userTimeMillis, allocatedBytes, deadlocked,
+                buildGlobalThreadId(thread.getId(), hostAddress), null, -1, null, null, -1, -1, -1, -1);
+    }
+
+    ThreadInfo(String name, long id, int priority, boolean daemon, Thread.State state,
+               List<StackTraceElement> stackTrace, long cpuTimeMillis, long userTimeMillis, long allocatedBytes,
+               boolean deadlocked, String globalThreadId, String lockName, long lockOwnerId,
+               List<String> lockedMonitors, List<String> lockedSynchronizers, long blockedCount,
+               long blockedTimeMillis, long waitedCount, long waitedTimeMillis) {
         super();
-        assert thread != null;
+        assert name != null;
         assert stackTrace == null || stackTrace instanceof Serializable;
+        assert lockedMonitors == null || lockedMonitors instanceof Serializable;
+        assert lockedSynchronizers == null || lockedSynchronizers instanceof Serializable;
 
-        this.name = thread.getName();
-        this.id = thread.getId();
-        this.priority = thread.getPriority();
-        this.daemon = thread.isDaemon();
-        this.state = thread.getState();
+        this.name = name;
+        this.id = id;
+        this.priority = priority;
+        this.daemon = daemon;
+        this.state = state;
         this.stackTrace = stackTrace;
         this.cpuTimeMillis = cpuTimeMillis;
         this.userTimeMillis = userTimeMillis;
+        this.allocatedBytes = allocatedBytes;
         this.deadlocked = deadlocked;
-        this.globalThreadId = buildGlobalThreadId(thread, hostAddress);
+        this.globalThreadId = globalThreadId;
+        this.lockName = lockName;
+        this.lockOwnerId = lockOwnerId;
+        this.lockedMonitors = lockedMonitors;
+        this.lockedSynchronizers = lockedSynchronizers;
+        this.blockedCount = blockedCount;
+        this.blockedTimeMillis = blockedTimeMillis;
+        this.waitedCount = waitedCount;
+        this.waitedTimeMillis = waitedTimeMillis;
     }
 
     public String getName() {
@@ -108,6 +141,13 @@ public class ThreadInfo implements Serializable, Comparable<ThreadInfo> {
         return userTimeMillis;
     }
 
+    /**
+     * @return the bytes allocated in the heap by the thread since its start, or -1 if unknown
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
     public boolean isDeadlocked() {
         return deadlocked;
     }
@@ -116,8 +156,72 @@ public class ThreadInfo implements Serializable, Comparable<ThreadInfo> {
         return globalThreadId;
     }
 
-    private static String buildGlobalThreadId(Thread thread, String hostAddress) {
-        return PID.getPID() + '_' + hostAddress + '_' + thread.getId();
+    /**
+     * @return the lock the thread is blocked on or waiting for, or null
+     */
+    public String getLockName() {
+        return lockName;
+    }
+
+    /**
+     * @return the id of the thread owning the lock the thread is blocked on, or -1
+     */
+    public long getLockOwnerId() {
+        return lockOwnerId;
+    }
+
+    /**
+     * @return the object monitors held by the thread, or null if not captured
+     */
+    public List<String> getLockedMonitors() {
+        if (lockedMonitors != null) {
+            return Collections.unmodifiableList(lockedMonitors);
+        }
+        return lockedMonitors;
+    }
+
+    /**
+     * @return the ownable synchronizers held by the thread, or null if not captured
+     */
+    public List<String> getLockedSynchronizers() {
+        if (lockedSynchronizers != null) {
+            return Collections.unmodifiableList(lockedSynchronizers);
+        }
+        return lockedSynchronizers;
+    }
+
+    /**
+     * @return the number of times the thread blocked to enter a monitor, or -1 if not captured
+     */
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     * @return the time the thread spent blocked to enter a monitor, or -1 if not captured or if
+     * thread contention monitoring is disabled
+     */
+    public long getBlockedTimeMillis() {
+        return blockedTimeMillis;
+    }
+
+    /**
+     * @return the number of times the thread waited for a notification, or -1 if not captured
+     */
+    public long getWaitedCount() {
+        return waitedCount;
+    }
+
+    /**
+     * @return the time the thread spent waiting for a notification, or -1 if not captured or if
+     * thread contention monitoring is disabled
+     */
+    public long getWaitedTimeMillis() {
+        return waitedTimeMillis;
+    }
+
+    private static String buildGlobalThreadId(long threadId, String hostAddress) {
+        return PID.getPID() + '_' + hostAddress + '_' + threadId;
     }
 
     /**
@@ -167,7 +271,14 @@ public class ThreadInfo implements Serializable, Comparable<ThreadInfo> {
         List<ThreadInfo> threadInfosList = new ArrayList<>(threads.size());
         // hostAddress récupéré ici car il peut y avoir plus de 20000 threads
         String hostAddress = Parameters.getHostAddress();
-        for (Thread thread : threads) {
+        // allocated bytes read for all threads at once
+        long[] ids = new long[threads.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = threads.get(i).getId();
+        }
+        long[] allocatedBytes = ThreadMXBeans.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            Thread thread = threads.get(i);
             StackTraceElement[] stackTraceElements = stackTraces.get(thread);
             List<StackTraceElement> stackTraceElementList = stackTraceElements == null ? null : Arrays.asList(stackTraceElements);
             long cpuTimeMillis;
@@ -182,12 +293,112 @@ public class ThreadInfo implements Serializable, Comparable<ThreadInfo> {
             boolean deadlocked = deadlockedThreads != null && Arrays.binarySearch(deadlockedThreads, thread.getId()) >= 0;
             // stackTraceElementList est une ArrayList et non unmodifiableList pour lisibilité xml
             threadInfosList.add(
-                    new ThreadInfo(thread, stackTraceElementList, cpuTimeMillis, userTimeMillis, deadlocked, hostAddress));
+                    new ThreadInfo(thread, stackTraceElementList, cpuTimeMillis, userTimeMillis, allocatedBytes[i],
+                            deadlocked, hostAddress));
+        }
+        // on retourne ArrayList et non unmodifiableList pour lisibilité du xml par xstream
+        return threadInfosList;
+    }
+
+    /**
+     * Captures the threads with the platform {@link ThreadMXBean} rather than {@link Thread#getAllStackTraces()}:
+     * the stack traces are bounded to the max depth of the options, or not captured at all,
+     * and the cpu times of all threads are read at once when the jvm supports it.
+     */
+    public static List<ThreadInfo> buildThreadInfoList(ThreadCaptureOptions options) {
+        return buildThreadInfoList(THREAD_BEAN.getAllThreadIds(), options, getDeadlockedThreads(THREAD_BEAN));
+    }
+
+    /**
+     * @param deadlockedThreads sorted ids of the deadlocked threads, or null
+     */
+    static List<ThreadInfo> buildThreadInfoList(long[] ids, ThreadCaptureOptions options, long[] deadlockedThreads) {
+        int maxDepth = options.getMaxDepth();
+        java.lang.management.ThreadInfo[] threadInfos = ThreadMXBeans.getThreadInfo(ids,
+                options.isLockedMonitors(), options.isLockedSynchronizers(), maxDepth);
+        long[] cpuTimes = null;
+        long[] userTimes = null;
+        if (options.isCpuTime()) {
+            cpuTimes = ThreadMXBeans.getThreadCpuTime(ids);
+            userTimes = ThreadMXBeans.getThreadUserTime(ids);
+        }
+        long[] allocatedBytes = null;
+        if (options.isAllocatedBytes()) {
+            allocatedBytes = ThreadMXBeans.getThreadAllocatedBytes(ids);
+        }
+        // before java 9, the priority and the daemon flag are only known from the threads
+        Map<Long, Thread> threads = ThreadMXBeans.isPriorityAndDaemonSupported() ? null : getThreadsById();
+        String hostAddress = Parameters.getHostAddress();
+        List<ThreadInfo> threadInfosList = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            java.lang.management.ThreadInfo threadInfo = threadInfos[i];
+            if (threadInfo == null) {
+                // terminated since the ids were read
+                continue;
+            }
+            long id = threadInfo.getThreadId();
+            int priority = Thread.NORM_PRIORITY;
+            boolean daemon = false;
+            if (threads == null) {
+                priority = ThreadMXBeans.getPriority(threadInfo);
+                daemon = ThreadMXBeans.isDaemon(threadInfo);
+            } else {
+                Thread thread = threads.get(id);
+                if (thread != null) {
+                    priority = thread.getPriority();
+                    daemon = thread.isDaemon();
+                }
+            }
+            List<StackTraceElement> stackTrace = null;
+            if (maxDepth > 0) {
+                StackTraceElement[] elements = threadInfo.getStackTrace();
+                if (elements.length > maxDepth) {
+                    elements = Arrays.copyOf(elements, maxDepth);
+                }
+                stackTrace = new ArrayList<>(Arrays.asList(elements));
+            }
+            List<String> lockedMonitors = null;
+            if (options.isLockedMonitors()) {
+                lockedMonitors = new ArrayList<>();
+                for (MonitorInfo monitorInfo : threadInfo.getLockedMonitors()) {
+                    lockedMonitors.add(monitorInfo.toString());
+                }
+            }
+            List<String> lockedSynchronizers = null;
+            if (options.isLockedSynchronizers()) {
+                lockedSynchronizers = new ArrayList<>();
+                for (LockInfo lockInfo : threadInfo.getLockedSynchronizers()) {
+                    lockedSynchronizers.add(lockInfo.toString());
+                }
+            }
+            long cpuTimeMillis = cpuTimes == null || cpuTimes[i] < 0 ? -1 : cpuTimes[i] / 1000000;
+            long userTimeMillis = userTimes == null || userTimes[i] < 0 ? -1 : userTimes[i] / 1000000;
+            long threadAllocatedBytes = allocatedBytes == null ? -1 : allocatedBytes[i];
+            boolean deadlocked = deadlockedThreads != null && Arrays.binarySearch(deadlockedThreads, id) >= 0;
+            threadInfosList.add(new ThreadInfo(threadInfo.getThreadName(), id, priority, daemon,
+                    threadInfo.getThreadState(), stackTrace, cpuTimeMillis, userTimeMillis, threadAllocatedBytes,
+                    deadlocked, buildGlobalThreadId(id, hostAddress), threadInfo.getLockName(),
+                    threadInfo.getLockOwnerId(), lockedMonitors, lockedSynchronizers, threadInfo.getBlockedCount(),
+                    threadInfo.getBlockedTime(), threadInfo.getWaitedCount(), threadInfo.getWaitedTime()));
         }
         // on retourne ArrayList et non unmodifiableList pour lisibilité du xml par xstream
         return threadInfosList;
     }
 
+    private static Map<Long, Thread> getThreadsById() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) {
+            group = group.getParent();
+        }
+        Thread[] threads = new Thread[group.activeCount() * 2 + 16];
+        int count = group.enumerate(threads, true);
+        Map<Long, Thread> threadsById = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            threadsById.put(threads[i].getId(), threads[i]);
+        }
+        return threadsById;
+    }
+
     static long[] getDeadlockedThreads(ThreadMXBean threadBean) {
         long[] deadlockedThreads;
         if (threadBean.isSynchronizerUsageSupported()) {
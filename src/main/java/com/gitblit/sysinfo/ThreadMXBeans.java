@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Per-thread counters of the platform {@link ThreadMXBean}, read for many threads at once.
+ * <p>
+ * When the bean implements com.sun.management.ThreadMXBean, the batched methods taking an array
+ * of thread ids are used: one call for all threads instead of one call per thread. Otherwise the
+ * values are read thread by thread.
+ * <p>
+ * The methods added to the API after java 8 (bounded depth with lock information, priority and
+ * daemon of a {@link ThreadInfo}) are called through method handles when they exist.
+ */
+final class ThreadMXBeans {
+    static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    private static final Accessor ACCESSOR = createAccessor();
+    // java 10+
+    private static final MethodHandle GET_THREAD_INFO_WITH_LOCKS_AND_DEPTH = findVirtual(ThreadMXBean.class,
+            "getThreadInfo", MethodType.methodType(ThreadInfo[].class, long[].class, boolean.class, boolean.class,
+                    int.class));
+    // java 9+
+    private static final MethodHandle GET_PRIORITY = findVirtual(ThreadInfo.class, "getPriority",
+            MethodType.methodType(int.class));
+    private static final MethodHandle IS_DAEMON = findVirtual(ThreadInfo.class, "isDaemon",
+            MethodType.methodType(boolean.class));
+
+    private ThreadMXBeans() {
+        super();
+    }
+
+    private interface Accessor {
+        long[] getThreadCpuTime(long[] ids);
+
+        long[] getThreadUserTime(long[] ids);
+
+        boolean isThreadAllocatedMemoryEnabled();
+
+        long[] getThreadAllocatedBytes(long[] ids);
+
+        long getThreadAllocatedBytes(long id);
+    }
+
+    static boolean isThreadCpuTimeEnabled() {
+        return THREAD_BEAN.isThreadCpuTimeSupported() && THREAD_BEAN.isThreadCpuTimeEnabled();
+    }
+
+    /**
+     * @return the cpu time of each thread in nanoseconds, -1 for a thread which is not alive
+     * or when cpu time measurement is disabled
+     */
+    static long[] getThreadCpuTime(long[] ids) {
+        if (!isThreadCpuTimeEnabled()) {
+            return unknown(ids);
+        }
+        return ACCESSOR.getThreadCpuTime(ids);
+    }
+
+    /**
+     * @return the user mode cpu time of each thread in nanoseconds, -1 for a thread which is
+     * not alive or when cpu time measurement is disabled
+     */
+    static long[] getThreadUserTime(long[] ids) {
+        if (!isThreadCpuTimeEnabled()) {
+            return unknown(ids);
+        }
+        return ACCESSOR.getThreadUserTime(ids);
+    }
+
+    /**
+     * Captures the threads with stack traces of at most {@code maxDepth} frames. When lock
+     * information is requested on a jvm without the bounded variant, the stack traces are
+     * captured in full and truncated.
+     *
+     * @return the infos in the order of the ids, null for a thread which is not alive
+     */
+    static ThreadInfo[] getThreadInfo(long[] ids, boolean lockedMonitors, boolean lockedSynchronizers,
+                                      int maxDepth) {
+        boolean monitors = lockedMonitors && THREAD_BEAN.isObjectMonitorUsageSupported();
+        boolean synchronizers = lockedSynchronizers && THREAD_BEAN.isSynchronizerUsageSupported();
+        if (!monitors && !synchronizers) {
+            return THREAD_BEAN.getThreadInfo(ids, maxDepth);
+        }
+        if (GET_THREAD_INFO_WITH_LOCKS_AND_DEPTH != null) {
+            try {
+                return (ThreadInfo[]) GET_THREAD_INFO_WITH_LOCKS_AND_DEPTH.invokeExact(THREAD_BEAN, ids, monitors,
+                        synchronizers, maxDepth);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+        return THREAD_BEAN.getThreadInfo(ids, monitors, synchronizers);
+    }
+
+    /**
+     * @return whether {@link #getPriority(ThreadInfo)} and {@link #isDaemon(ThreadInfo)} are supported
+     */
+    static boolean isPriorityAndDaemonSupported() {
+        return GET_PRIORITY != null && IS_DAEMON != null;
+    }
+
+    static int getPriority(ThreadInfo threadInfo) {
+        try {
+            return (int) GET_PRIORITY.invokeExact(threadInfo);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    static boolean isDaemon(ThreadInfo threadInfo) {
+        try {
+            return (boolean) IS_DAEMON.invokeExact(threadInfo);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static MethodHandle findVirtual(Class<?> type, String name, MethodType methodType) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(type, name, methodType);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the allocated bytes of the threads are measured, only with com.sun.management
+     */
+    static boolean isThreadAllocatedMemoryEnabled() {
+        return ACCESSOR.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * @return the bytes allocated in the heap by each thread since its start, -1 for a thread which
+     * is not alive or when allocated memory measurement is not supported or disabled
+     */
+    static long[] getThreadAllocatedBytes(long[] ids) {
+        if (!ACCESSOR.isThreadAllocatedMemoryEnabled()) {
+            return unknown(ids);
+        }
+        return ACCESSOR.getThreadAllocatedBytes(ids);
+    }
+
+    /**
+     * Reads the cpu and user times in nanoseconds of the first {@code count} threads into the
+     * given arrays, one call per thread so that nothing is allocated. A null array is not read.
+     */
+    static void fillThreadCpuTime(long[] ids, int count, long[] cpuTimes, long[] userTimes) {
+        boolean enabled = isThreadCpuTimeEnabled();
+        for (int i = 0; i < count; i++) {
+            if (cpuTimes != null) {
+                cpuTimes[i] = enabled ? THREAD_BEAN.getThreadCpuTime(ids[i]) : -1;
+            }
+            if (userTimes != null) {
+                userTimes[i] = enabled ? THREAD_BEAN.getThreadUserTime(ids[i]) : -1;
+            }
+        }
+    }
+
+    /**
+     * Reads the allocated bytes of the first {@code count} threads into {@code values}, one call
+     * per thread so that nothing is allocated.
+     */
+    static void fillThreadAllocatedBytes(long[] ids, int count, long[] values) {
+        boolean enabled = ACCESSOR.isThreadAllocatedMemoryEnabled();
+        for (int i = 0; i < count; i++) {
+            values[i] = enabled ? ACCESSOR.getThreadAllocatedBytes(ids[i]) : -1;
+        }
+    }
+
+    private static long[] unknown(long[] ids) {
+        long[] values = new long[ids.length];
+        Arrays.fill(values, -1);
+        return values;
+    }
+
+    private static Accessor createAccessor() {
+        if (OperatingSystemMetrics.isClassAvailable("com.sun.management.ThreadMXBean")) {
+            Accessor accessor = SunAccessor.create(THREAD_BEAN);
+            if (accessor != null) {
+                return accessor;
+            }
+        }
+        return new LoopAccessor();
+    }
+
+    /**
+     * Batched calls, in its own class so that com.sun.management is only linked when it exists.
+     */
+    private static final class SunAccessor implements Accessor {
+        private final com.sun.management.ThreadMXBean threadBean;
+
+        private SunAccessor(com.sun.management.ThreadMXBean threadBean) {
+            this.threadBean = threadBean;
+        }
+
+        static Accessor create(ThreadMXBean threadBean) {
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                return new SunAccessor((com.sun.management.ThreadMXBean) threadBean);
+            }
+            return null;
+        }
+
+        @Override
+        public long[] getThreadCpuTime(long[] ids) {
+            return threadBean.getThreadCpuTime(ids);
+        }
+
+        @Override
+        public long[] getThreadUserTime(long[] ids) {
+            return threadBean.getThreadUserTime(ids);
+        }
+
+        @Override
+        public boolean isThreadAllocatedMemoryEnabled() {
+            return threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled();
+        }
+
+        @Override
+        public long[] getThreadAllocatedBytes(long[] ids) {
+            return threadBean.getThreadAllocatedBytes(ids);
+        }
+
+        @Override
+        public long getThreadAllocatedBytes(long id) {
+            return threadBean.getThreadAllocatedBytes(id);
+        }
+    }
+
+    /**
+     * One call per thread, for jvms without com.sun.management.
+     */
+    private static final class LoopAccessor implements Accessor {
+        LoopAccessor() {
+            super();
+        }
+
+        @Override
+        public long[] getThreadCpuTime(long[] ids) {
+            long[] values = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                values[i] = THREAD_BEAN.getThreadCpuTime(ids[i]);
+            }
+            return values;
+        }
+
+        @Override
+        public long[] getThreadUserTime(long[] ids) {
+            long[] values = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                values[i] = THREAD_BEAN.getThreadUserTime(ids[i]);
+            }
+            return values;
+        }
+
+        @Override
+        public boolean isThreadAllocatedMemoryEnabled() {
+            return false;
+        }
+
+        @Override
+        public long[] getThreadAllocatedBytes(long[] ids) {
+            return unknown(ids);
+        }
+
+        @Override
+        public long getThreadAllocatedBytes(long id) {
+            return -1;
+        }
+    }
+}
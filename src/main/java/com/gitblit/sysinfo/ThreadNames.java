@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+/**
+ * Derives the pool of a thread from its name.
+ */
+final class ThreadNames {
+
+    private ThreadNames() {
+        super();
+    }
+
+    /**
+     * Replaces the last run of digits with {@code *}, so that the threads of a pool share a name
+     * while distinct pools do not: "pool-3-thread-12" becomes "pool-3-thread-*". Returns the name
+     * itself when it has no digit.
+     */
+    static String normalize(String name) {
+        int end = name.length();
+        while (end > 0 && !isDigit(name.charAt(end - 1))) {
+            end--;
+        }
+        if (end == 0) {
+            return name;
+        }
+        int start = end - 1;
+        while (start > 0 && isDigit(name.charAt(start - 1))) {
+            start--;
+        }
+        return new StringBuilder(name.length() - (end - start) + 1).append(name, 0, start).append('*')
+                .append(name, end, name.length()).toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
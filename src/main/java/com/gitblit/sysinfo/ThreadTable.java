@@ -0,0 +1,348 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the platform threads stored column by column ({@code long[] ids}, {@code byte[] states},
+ * {@code long[] cpuTimes}...) instead of one {@link ThreadInfo} per thread.
+ * <p>
+ * {@link #refill()} overwrites the columns in place: the threads are enumerated into a reused
+ * array, read from the {@link Thread} objects, and the cpu times and allocated bytes are read
+ * thread by thread into the existing columns. The columns only grow when the number of threads
+ * does, so that sampling tens of thousands of threads periodically produces almost no garbage.
+ * Stack traces are not captured, {@link ThreadInfo#buildThreadInfoList(ThreadCaptureOptions)}
+ * does that.
+ * <p>
+ * Rows are read by index, directly or through a reusable {@link View}. The global thread ids are
+ * only built when asked for, and kept for the threads still present in the next refills. So is the
+ * sorted id column behind {@link #indexOf(long)}, rebuilt by the first lookup after a refill.
+ * A table is not thread-safe.
+ */
+public class ThreadTable {
+    private static final Thread.State[] STATES = Thread.State.values();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final boolean cpuTime;
+    private final boolean allocatedBytes;
+    private Thread[] threads = new Thread[INITIAL_CAPACITY];
+    private int size;
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private byte[] priorities = new byte[INITIAL_CAPACITY];
+    private boolean[] daemons = new boolean[INITIAL_CAPACITY];
+    private long[] cpuTimes = new long[INITIAL_CAPACITY];
+    private long[] userTimes = new long[INITIAL_CAPACITY];
+    private long[] allocatedBytesColumn = new long[INITIAL_CAPACITY];
+    private String[] globalThreadIds = new String[INITIAL_CAPACITY];
+    private long[] globalThreadIdOwners = new long[INITIAL_CAPACITY];
+    private String globalThreadIdPrefix;
+    private long[] sortedIds = new long[0];
+    private int[] rowsBySortedId = new int[0];
+    private boolean sortedIdsValid;
+    private long timeMillis = -1;
+
+    /**
+     * A row of the table, repositioned with {@link #moveTo(int)} rather than allocated per thread.
+     */
+    public final class View {
+        private int index;
+
+        View() {
+            super();
+        }
+
+        /**
+         * @return this view, positioned on the row
+         */
+        public View moveTo(int row) {
+            checkIndex(row);
+            this.index = row;
+            return this;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getId() {
+            return ThreadTable.this.getId(index);
+        }
+
+        public String getName() {
+            return ThreadTable.this.getName(index);
+        }
+
+        public Thread.State getState() {
+            return ThreadTable.this.getState(index);
+        }
+
+        public int getPriority() {
+            return ThreadTable.this.getPriority(index);
+        }
+
+        public boolean isDaemon() {
+            return ThreadTable.this.isDaemon(index);
+        }
+
+        public long getCpuTimeMillis() {
+            return ThreadTable.this.getCpuTimeMillis(index);
+        }
+
+        public long getUserTimeMillis() {
+            return ThreadTable.this.getUserTimeMillis(index);
+        }
+
+        public long getAllocatedBytes() {
+            return ThreadTable.this.getAllocatedBytes(index);
+        }
+
+        public String getGlobalThreadId() {
+            return ThreadTable.this.getGlobalThreadId(index);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[id=" + getId() + ", name=" + getName() + ", state=" + getState()
+                    + ", cpuTimeMillis=" + getCpuTimeMillis() + ']';
+        }
+    }
+
+    /**
+     * A table with the cpu times and the allocated bytes.
+     */
+    public ThreadTable() {
+        this(true, true);
+    }
+
+    /**
+     * @param cpuTime whether the cpu and user times are read, -1 otherwise
+     * @param allocatedBytes whether the allocated bytes are read, -1 otherwise
+     */
+    public ThreadTable(boolean cpuTime, boolean allocatedBytes) {
+        super();
+        this.cpuTime = cpuTime;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Replaces the content of the table with the current platform threads.
+     *
+     * @return this table
+     */
+    public ThreadTable refill() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        int count = root.enumerate(threads, true);
+        while (count == threads.length) {
+            // possibly truncated
+            threads = new Thread[threads.length * 2];
+            count = root.enumerate(threads, true);
+        }
+        ensureCapacity(count);
+        int previousSize = size;
+        for (int i = 0; i < count; i++) {
+            Thread thread = threads[i];
+            ids[i] = thread.getId();
+            names[i] = thread.getName();
+            states[i] = (byte) thread.getState().ordinal();
+            priorities[i] = (byte) thread.getPriority();
+            daemons[i] = thread.isDaemon();
+            // no reference kept to the threads, they can be collected once terminated
+            threads[i] = null;
+        }
+        size = count;
+        sortedIdsValid = false;
+        if (previousSize > count) {
+            Arrays.fill(names, count, previousSize, null);
+        }
+        if (cpuTime) {
+            ThreadMXBeans.fillThreadCpuTime(ids, count, cpuTimes, userTimes);
+        } else {
+            Arrays.fill(cpuTimes, 0, count, -1);
+            Arrays.fill(userTimes, 0, count, -1);
+        }
+        if (allocatedBytes) {
+            ThreadMXBeans.fillThreadAllocatedBytes(ids, count, allocatedBytesColumn);
+        } else {
+            Arrays.fill(allocatedBytesColumn, 0, count, -1);
+        }
+        timeMillis = System.currentTimeMillis();
+        return this;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, newCapacity);
+        names = Arrays.copyOf(names, newCapacity);
+        states = Arrays.copyOf(states, newCapacity);
+        priorities = Arrays.copyOf(priorities, newCapacity);
+        daemons = Arrays.copyOf(daemons, newCapacity);
+        cpuTimes = Arrays.copyOf(cpuTimes, newCapacity);
+        userTimes = Arrays.copyOf(userTimes, newCapacity);
+        allocatedBytesColumn = Arrays.copyOf(allocatedBytesColumn, newCapacity);
+        globalThreadIds = Arrays.copyOf(globalThreadIds, newCapacity);
+        globalThreadIdOwners = Arrays.copyOf(globalThreadIdOwners, newCapacity);
+    }
+
+    private void checkIndex(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+    }
+
+    /**
+     * @return the number of threads of the last refill
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the time of the last refill in milliseconds since the epoch, or -1 before the first one
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return a new view, to be moved from row to row
+     */
+    public View view() {
+        return new View();
+    }
+
+    /**
+     * Finds a row by binary search in the sorted id column: the first lookup after a refill sorts it in
+     * O(n log n), the next ones are O(log n), so that matching the rows of two tables is O(n log n)
+     * rather than quadratic.
+     *
+     * @return the row of the thread, or -1 if it was not found by the last refill
+     */
+    public int indexOf(long id) {
+        if (!sortedIdsValid) {
+            sortIds();
+        }
+        int position = Arrays.binarySearch(sortedIds, 0, size, id);
+        return position >= 0 ? rowsBySortedId[position] : -1;
+    }
+
+    private void sortIds() {
+        if (sortedIds.length < size) {
+            sortedIds = new long[ids.length];
+            rowsBySortedId = new int[ids.length];
+        }
+        System.arraycopy(ids, 0, sortedIds, 0, size);
+        Arrays.sort(sortedIds, 0, size);
+        // the ids are unique, each row finds its own position
+        for (int i = 0; i < size; i++) {
+            rowsBySortedId[Arrays.binarySearch(sortedIds, 0, size, ids[i])] = i;
+        }
+        sortedIdsValid = true;
+    }
+
+    public long getId(int row) {
+        checkIndex(row);
+        return ids[row];
+    }
+
+    public String getName(int row) {
+        checkIndex(row);
+        return names[row];
+    }
+
+    public Thread.State getState(int row) {
+        checkIndex(row);
+        return STATES[states[row]];
+    }
+
+    public int getPriority(int row) {
+        checkIndex(row);
+        return priorities[row];
+    }
+
+    public boolean isDaemon(int row) {
+        checkIndex(row);
+        return daemons[row];
+    }
+
+    /**
+     * @return the cpu time of the thread, or -1 if not read
+     */
+    public long getCpuTimeMillis(int row) {
+        checkIndex(row);
+        return cpuTimes[row] < 0 ? -1 : cpuTimes[row] / 1000000;
+    }
+
+    /**
+     * @return the user mode cpu time of the thread, or -1 if not read
+     */
+    public long getUserTimeMillis(int row) {
+        checkIndex(row);
+        return userTimes[row] < 0 ? -1 : userTimes[row] / 1000000;
+    }
+
+    /**
+     * @return the bytes allocated by the thread since its start, or -1 if not read
+     */
+    public long getAllocatedBytes(int row) {
+        checkIndex(row);
+        return allocatedBytesColumn[row];
+    }
+
+    /**
+     * @return the same id as {@link ThreadInfo#getGlobalThreadId()}, built on first use
+     */
+    public String getGlobalThreadId(int row) {
+        checkIndex(row);
+        String globalThreadId = globalThreadIds[row];
+        if (globalThreadId == null || globalThreadIdOwners[row] != ids[row]) {
+            if (globalThreadIdPrefix == null) {
+                // the host address is only looked up if a global id is needed
+                globalThreadIdPrefix = PID.getPID() + '_' + Parameters.getHostAddress() + '_';
+            }
+            globalThreadId = globalThreadIdPrefix + ids[row];
+            globalThreadIds[row] = globalThreadId;
+            globalThreadIdOwners[row] = ids[row];
+        }
+        return globalThreadId;
+    }
+
+    /**
+     * Copies the ids of the last refill into {@code target}, which must hold {@link #size()} values.
+     */
+    public void copyIds(long[] target) {
+        System.arraycopy(ids, 0, target, 0, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + size + ", timeMillis=" + timeMillis + ']';
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.PlatformManagedObject;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the virtual threads, which {@link Thread#getAllStackTraces()} and the ThreadMXBean
+ * do not see, from the JSON thread dump of com.sun.management.HotSpotDiagnosticMXBean (java 21+).
+ * <p>
+ * The dump is written by the jvm to a temporary file, then read with a streaming parser and
+ * aggregated on the fly: the threads themselves are never held in memory, only the counts per
+ * container and per carrier, and a bounded table of the distinct stacks.
+ */
+public final class VirtualThreadCollector {
+    private static final int DEFAULT_MAX_STACKS = 10000;
+    private static final Object DIAGNOSTIC_BEAN;
+    private static final Method DUMP_THREADS;
+    private static final Object JSON_FORMAT;
+
+    static {
+        Object bean = null;
+        Method dumpThreads = null;
+        Object jsonFormat = null;
+        try {
+            Class<?> beanClass = Class.forName("com.sun.management.HotSpotDiagnosticMXBean");
+            Class<?> formatClass = Class.forName("com.sun.management.HotSpotDiagnosticMXBean$ThreadDumpFormat");
+            dumpThreads = beanClass.getMethod("dumpThreads", String.class, formatClass);
+            for (Object constant : formatClass.getEnumConstants()) {
+                if ("JSON".equals(((Enum<?>) constant).name())) {
+                    jsonFormat = constant;
+                }
+            }
+            bean = ManagementFactory.getPlatformMXBean(beanClass.asSubclass(PlatformManagedObject.class));
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError | RuntimeException e) {
+            // before java 21 or not a hotspot jvm
+            dumpThreads = null;
+        }
+        DIAGNOSTIC_BEAN = bean;
+        DUMP_THREADS = dumpThreads;
+        JSON_FORMAT = jsonFormat;
+    }
+
+    private VirtualThreadCollector() {
+        super();
+    }
+
+    /**
+     * @return whether the jvm can dump its threads including the virtual threads
+     */
+    public static boolean isSupported() {
+        return DIAGNOSTIC_BEAN != null && DUMP_THREADS != null && JSON_FORMAT != null;
+    }
+
+    /**
+     * Dumps all threads and summarizes them.
+     *
+     * @throws UnsupportedOperationException before java 21
+     */
+    public static VirtualThreadSummary collect() throws IOException {
+        return collect(DEFAULT_MAX_STACKS);
+    }
+
+    /**
+     * @param maxStacks the maximum number of distinct stacks tracked
+     */
+    public static VirtualThreadSummary collect(int maxStacks) throws IOException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("thread dumps with virtual threads require java 21");
+        }
+        long[] platformIds = ThreadMXBeans.THREAD_BEAN.getAllThreadIds();
+        Arrays.sort(platformIds);
+        File file = File.createTempFile("sysinfo-threads", ".json");
+        try {
+            // the jvm refuses to overwrite an existing file
+            if (!file.delete()) {
+                throw new IOException("Cannot delete " + file);
+            }
+            try {
+                DUMP_THREADS.invoke(DIAGNOSTIC_BEAN, file.getAbsolutePath(), JSON_FORMAT);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            try (Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath()),
+                    StandardCharsets.UTF_8))) {
+                return parse(reader, platformIds, maxStacks);
+            }
+        } finally {
+            if (file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Summarizes a JSON thread dump. A thread is virtual if the dump says so, or else if its id is
+     * not one of the platform thread ids.
+     *
+     * @param sortedPlatformIds the sorted ids of the platform threads
+     */
+    static VirtualThreadSummary parse(Reader reader, long[] sortedPlatformIds, int maxStacks) throws IOException {
+        Summarizer summarizer = new Summarizer(sortedPlatformIds, maxStacks);
+        JsonPullParser parser = new JsonPullParser(reader);
+        JsonPullParser.Token token = parser.next();
+        if (token != JsonPullParser.Token.START_OBJECT) {
+            throw new IOException("Not a JSON thread dump");
+        }
+        // the containers are found at any depth, they are in the "threadDump" object
+        summarizer.readObjectFields(parser);
+        return summarizer.toSummary();
+    }
+
+    /**
+     * Aggregates the threads while they are parsed.
+     */
+    private static final class Summarizer {
+        private final long[] sortedPlatformIds;
+        private final int maxStacks;
+        private final Map<String, VirtualThreadSummary.Container> containers = new LinkedHashMap<>();
+        private final Map<Long, long[]> carriers = new HashMap<>();
+        private final Map<String, String> frames = new HashMap<>();
+        private final Map<List<String>, VirtualThreadSummary.Stack> stacks = new HashMap<>();
+        private final List<String> stackFrames = new ArrayList<>();
+        private long virtualThreadCount;
+        private long platformThreadCount;
+        private long untrackedStackThreadCount;
+
+        Summarizer(long[] sortedPlatformIds, int maxStacks) {
+            this.sortedPlatformIds = sortedPlatformIds;
+            this.maxStacks = maxStacks;
+        }
+
+        /**
+         * Reads the fields of an object whose START_OBJECT was read, looking for "threadContainers".
+         */
+        void readObjectFields(JsonPullParser parser) throws IOException {
+            JsonPullParser.Token token = parser.next();
+            while (token == JsonPullParser.Token.FIELD_NAME) {
+                String field = parser.getValue();
+                token = parser.next();
+                if ("threadContainers".equals(field) && token == JsonPullParser.Token.START_ARRAY) {
+                    readContainers(parser);
+                } else if (token == JsonPullParser.Token.START_OBJECT) {
+                    readObjectFields(parser);
+                } else {
+                    parser.skipValue(token);
+                }
+                token = parser.next();
+            }
+            if (token != JsonPullParser.Token.END_OBJECT) {
+                throw new IOException("Unexpected " + token);
+            }
+        }
+
+        private void readContainers(JsonPullParser parser) throws IOException {
+            JsonPullParser.Token token = parser.next();
+            while (token == JsonPullParser.Token.START_OBJECT) {
+                readContainer(parser);
+                token = parser.next();
+            }
+            if (token != JsonPullParser.Token.END_ARRAY) {
+                throw new IOException("Unexpected " + token);
+            }
+        }
+
+        private void readContainer(JsonPullParser parser) throws IOException {
+            String name = null;
+            String parent = null;
+            VirtualThreadSummary.Container container = null;
+            JsonPullParser.Token token = parser.next();
+            while (token == JsonPullParser.Token.FIELD_NAME) {
+                String field = parser.getValue();
+                token = parser.next();
+                if ("container".equals(field)) {
+                    name = parser.getValue();
+                } else if ("parent".equals(field)) {
+                    parent = parser.getValue();
+                } else if ("threads".equals(field) && token == JsonPullParser.Token.START_ARRAY) {
+                    // the name and the parent come before the threads in the dumps of the jdk
+                    container = getContainer(name, parent);
+                    readThreads(parser, container);
+                } else {
+                    parser.skipValue(token);
+                }
+                token = parser.next();
+            }
+            if (token != JsonPullParser.Token.END_OBJECT) {
+                throw new IOException("Unexpected " + token);
+            }
+            if (container == null) {
+                getContainer(name, parent);
+            }
+        }
+
+        private VirtualThreadSummary.Container getContainer(String name, String parent) {
+            String key = name == null ? "" : name;
+            VirtualThreadSummary.Container container = containers.get(key);
+            if (container == null) {
+                container = new VirtualThreadSummary.Container(key, parent);
+                containers.put(key, container);
+            }
+            return container;
+        }
+
+        private void readThreads(JsonPullParser parser, VirtualThreadSummary.Container container) throws IOException {
+            JsonPullParser.Token token = parser.next();
+            while (token == JsonPullParser.Token.START_OBJECT) {
+                readThread(parser, container);
+                token = parser.next();
+            }
+            if (token != JsonPullParser.Token.END_ARRAY) {
+                throw new IOException("Unexpected " + token);
+            }
+        }
+
+        private void readThread(JsonPullParser parser, VirtualThreadSummary.Container container) throws IOException {
+            long tid = -1;
+            String name = null;
+            Boolean virtual = null;
+            long carrier = -1;
+            stackFrames.clear();
+            JsonPullParser.Token token = parser.next();
+            while (token == JsonPullParser.Token.FIELD_NAME) {
+                String field = parser.getValue();
+                token = parser.next();
+                if ("tid".equals(field)) {
+                    tid = parseLong(parser.getValue());
+                } else if ("name".equals(field)) {
+                    name = parser.getValue();
+                } else if ("virtual".equals(field)) {
+                    virtual = token == JsonPullParser.Token.TRUE;
+                } else if ("carrier".equals(field)) {
+                    carrier = parseLong(parser.getValue());
+                } else if ("stack".equals(field) && token == JsonPullParser.Token.START_ARRAY) {
+                    readStack(parser);
+                } else {
+                    parser.skipValue(token);
+                }
+                token = parser.next();
+            }
+            boolean isVirtual = virtual != null ? virtual : Arrays.binarySearch(sortedPlatformIds, tid) < 0;
+            if (isVirtual) {
+                virtualThreadCount++;
+                if (carrier >= 0) {
+                    long[] count = carriers.get(carrier);
+                    if (count == null) {
+                        count = new long[1];
+                        carriers.put(carrier, count);
+                    }
+                    count[0]++;
+                }
+            } else {
+                platformThreadCount++;
+            }
+            container.add(isVirtual);
+            addStack(name, isVirtual);
+        }
+
+        private void readStack(JsonPullParser parser) throws IOException {
+            JsonPullParser.Token token = parser.next();
+            while (token == JsonPullParser.Token.STRING) {
+                String frame = parser.getValue();
+                String interned = frames.get(frame);
+                if (interned == null) {
+                    interned = frame;
+                    frames.put(frame, frame);
+                }
+                stackFrames.add(interned);
+                token = parser.next();
+            }
+            if (token != JsonPullParser.Token.END_ARRAY) {
+                throw new IOException("Unexpected " + token);
+            }
+        }
+
+        private void addStack(String threadName, boolean virtual) {
+            // looked up with the reused list, copied only for a new stack
+            VirtualThreadSummary.Stack stack = stacks.get(stackFrames);
+            if (stack == null) {
+                if (stacks.size() >= maxStacks) {
+                    untrackedStackThreadCount++;
+                    return;
+                }
+                List<String> frozen = Collections.unmodifiableList(new ArrayList<>(stackFrames));
+                stack = new VirtualThreadSummary.Stack(frozen, threadName);
+                stacks.put(frozen, stack);
+            }
+            stack.add(virtual);
+        }
+
+        private static long parseLong(String value) {
+            if (value == null) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        VirtualThreadSummary toSummary() {
+            List<VirtualThreadSummary.Container> containerList = new ArrayList<>(containers.values());
+            Collections.sort(containerList);
+            Map<Long, Long> carrierCounts = new HashMap<>();
+            for (Map.Entry<Long, long[]> entry : carriers.entrySet()) {
+                carrierCounts.put(entry.getKey(), entry.getValue()[0]);
+            }
+            List<VirtualThreadSummary.Stack> stackList = new ArrayList<>(stacks.values());
+            Collections.sort(stackList);
+            return new VirtualThreadSummary(virtualThreadCount, platformThreadCount, containerList, carrierCounts,
+                    stackList, untrackedStackThreadCount);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of a thread dump including the virtual threads, built by {@link VirtualThreadCollector}:
+ * thread counts per thread container and per carrier, and the distinct stacks with their number
+ * of threads.
+ */
+public class VirtualThreadSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long virtualThreadCount;
+    private final long platformThreadCount;
+    private final List<Container> containers;
+    private final Map<Long, Long> mountedVirtualThreadsByCarrier;
+    private final List<Stack> stacks;
+    private final long untrackedStackThreadCount;
+
+    /**
+     * A thread container: the root container, an executor or a structured task scope.
+     */
+    public static final class Container implements Serializable, Comparable<Container> {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String parent;
+        private long virtualThreadCount;
+        private long platformThreadCount;
+
+        Container(String name, String parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        void add(boolean virtual) {
+            if (virtual) {
+                virtualThreadCount++;
+            } else {
+                platformThreadCount++;
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the name of the parent container, or null for the root container
+         */
+        public String getParent() {
+            return parent;
+        }
+
+        public long getVirtualThreadCount() {
+            return virtualThreadCount;
+        }
+
+        public long getPlatformThreadCount() {
+            return platformThreadCount;
+        }
+
+        /**
+         * Orders by decreasing number of threads.
+         */
+        @Override
+        public int compareTo(Container o) {
+            return Long.compare(o.virtualThreadCount + o.platformThreadCount,
+                    virtualThreadCount + platformThreadCount);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[name=" + name + ", virtualThreadCount=" + virtualThreadCount
+                    + ", platformThreadCount=" + platformThreadCount + ']';
+        }
+    }
+
+    /**
+     * A distinct stack and the threads having it.
+     */
+    public static final class Stack implements Serializable, Comparable<Stack> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> frames;
+        private final String sampleThreadName;
+        private long threadCount;
+        private long virtualThreadCount;
+
+        Stack(List<String> frames, String sampleThreadName) {
+            this.frames = frames;
+            this.sampleThreadName = sampleThreadName;
+        }
+
+        void add(boolean virtual) {
+            threadCount++;
+            if (virtual) {
+                virtualThreadCount++;
+            }
+        }
+
+        /**
+         * @return the frames, top of the stack first, as written in the thread dump
+         */
+        public List<String> getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return the name of the first thread found with this stack
+         */
+        public String getSampleThreadName() {
+            return sampleThreadName;
+        }
+
+        public long getThreadCount() {
+            return threadCount;
+        }
+
+        public long getVirtualThreadCount() {
+            return virtualThreadCount;
+        }
+
+        /**
+         * Orders by decreasing number of threads.
+         */
+        @Override
+        public int compareTo(Stack o) {
+            return Long.compare(o.threadCount, threadCount);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[threadCount=" + threadCount + ", virtualThreadCount="
+                    + virtualThreadCount + ", top=" + (frames.isEmpty() ? "" : frames.get(0)) + ']';
+        }
+    }
+
+    VirtualThreadSummary(long virtualThreadCount, long platformThreadCount, List<Container> containers,
+                         Map<Long, Long> mountedVirtualThreadsByCarrier, List<Stack> stacks,
+                         long untrackedStackThreadCount) {
+        super();
+        this.virtualThreadCount = virtualThreadCount;
+        this.platformThreadCount = platformThreadCount;
+        this.containers = containers;
+        this.mountedVirtualThreadsByCarrier = mountedVirtualThreadsByCarrier;
+        this.stacks = stacks;
+        this.untrackedStackThreadCount = untrackedStackThreadCount;
+    }
+
+    public long getVirtualThreadCount() {
+        return virtualThreadCount;
+    }
+
+    public long getPlatformThreadCount() {
+        return platformThreadCount;
+    }
+
+    /**
+     * @return the thread containers by decreasing number of threads
+     */
+    public List<Container> getContainers() {
+        return Collections.unmodifiableList(containers);
+    }
+
+    /**
+     * @return the number of virtual threads mounted on each carrier thread id, empty when the
+     * jvm does not report the carriers in its thread dumps
+     */
+    public Map<Long, Long> getMountedVirtualThreadsByCarrier() {
+        return Collections.unmodifiableMap(mountedVirtualThreadsByCarrier);
+    }
+
+    /**
+     * @return the distinct stacks by decreasing number of threads
+     */
+    public List<Stack> getStacks() {
+        return Collections.unmodifiableList(stacks);
+    }
+
+    /**
+     * @return the number of threads whose stack was not tracked because the stack table was full
+     */
+    public long getUntrackedStackThreadCount() {
+        return untrackedStackThreadCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[virtualThreadCount=" + virtualThreadCount + ", platformThreadCount="
+                + platformThreadCount + ", containers=" + containers.size() + ", stacks=" + stacks.size() + ']';
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Parses and compares two outputs of "VM.native_memory summary" captured on java 17, before and after
+ * allocating 64 MB of direct buffers and starting 40 threads.
+ */
+public class NativeMemoryCollectorTest {
+    private static final long KB = 1024;
+
+    private static NativeMemorySummary parse(String name, long timeMillis) throws IOException {
+        try (Reader reader = new InputStreamReader(
+                NativeMemoryCollectorTest.class.getResourceAsStream("nmt/" + name), StandardCharsets.UTF_8)) {
+            return NativeMemoryCollector.parse(reader, timeMillis);
+        }
+    }
+
+    @Test
+    public void parsesSummary() throws IOException {
+        NativeMemorySummary summary = parse("summary-baseline.txt", 1000);
+        assertEquals(1000, summary.getTimeMillis());
+        assertEquals(2939238 * KB, summary.getTotalReserved());
+        assertEquals(124606 * KB, summary.getTotalCommitted());
+        assertEquals(20, summary.getCategories().size());
+        NativeMemorySummary.Category heap = summary.getCategory("Java Heap");
+        assertEquals(1538048 * KB, heap.getReserved());
+        assertEquals(96256 * KB, heap.getCommitted());
+        assertEquals(1538048 * KB, heap.getMmapReserved());
+        assertEquals(96256 * KB, heap.getMmapCommitted());
+        NativeMemorySummary.Category thread = summary.getCategory("Thread");
+        assertEquals(13348 * KB, thread.getReserved());
+        assertEquals(23 * KB, thread.getMalloc());
+        assertEquals(13 * KB, thread.getArena());
+        // the metaspace lines of the Class category are not taken for its mmap
+        NativeMemorySummary.Category classes = summary.getCategory("Class");
+        assertEquals(143 * KB, classes.getMalloc());
+        assertEquals(1048576 * KB, classes.getMmapReserved());
+        assertNull(summary.getCategory("Heap"));
+    }
+
+    @Test
+    public void diffsSummaries() throws IOException {
+        NativeMemorySummary baseline = parse("summary-baseline.txt", 1000);
+        NativeMemorySummary after = parse("summary-after.txt", 3000);
+        NativeMemoryDiff diff = after.diff(baseline);
+        assertEquals(2000, diff.getIntervalMillis());
+        assertEquals((3045954 - 2939238) * KB, diff.getTotalReservedDelta());
+        assertEquals((194586 - 124606) * KB, diff.getTotalCommittedDelta());
+        List<NativeMemoryDiff.CategoryDelta> deltas = diff.getCategoryDeltas();
+        // the direct buffers are in Other, the stacks of the new threads in Thread
+        assertEquals("Other", deltas.get(0).getName());
+        assertEquals(65536 * KB, deltas.get(0).getCommittedDelta());
+        assertEquals(65546 * KB, deltas.get(0).getCommitted());
+        assertEquals("Thread", deltas.get(1).getName());
+        assertEquals((54426 - 13348) * KB, deltas.get(1).getReservedDelta());
+        assertEquals((4982 - 704) * KB, deltas.get(1).getCommittedDelta());
+    }
+
+    @Test
+    public void readsSizesInAnyScale() {
+        assertEquals(143 * KB, NativeMemoryCollector.readSize("(malloc=143KB #2034)", "malloc="));
+        assertEquals(12, NativeMemoryCollector.readSize("(malloc=12B #3)", "malloc="));
+        assertEquals(96 * KB * KB, NativeMemoryCollector.readSize("(reserved=96MB, committed=2MB)", "reserved="));
+        assertEquals(2 * KB * KB * KB, NativeMemoryCollector.readSize("Total: reserved=2GB", "reserved="));
+        assertEquals(-1, NativeMemoryCollector.readSize("(arena=13KB #24)", "malloc="));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Reads a captured /proc tree: pid 1234 is a multi-threaded java process with locked pages on a
+ * terminal, pid 2 a kernel thread, pid 5000 a process with 3 TB of address space.
+ */
+public class ProcProcessCollectorTest {
+
+    private static Path fixture(String name) throws Exception {
+        return Paths.get(ProcProcessCollectorTest.class.getResource("proc/" + name).toURI());
+    }
+
+    private static List<ProcessInfo> collect() throws Exception {
+        return new ProcProcessCollector(fixture("root"), fixture("passwd")).collect(null);
+    }
+
+    @Test
+    public void readsProcessLikePs() throws Exception {
+        List<ProcessInfo> processInfos = collect();
+        assertEquals(3, processInfos.size());
+        ProcessInfo java = processInfos.get(1);
+        assertEquals(1234, java.getPid());
+        assertEquals(1, java.getPpid());
+        assertEquals("alice", java.getUser());
+        assertEquals("java -jar app.jar", java.getCommand());
+        assertEquals("pts/0", java.getTty());
+        assertEquals("SLsl+", java.getStat());
+        assertEquals(3145728, java.getVsz());
+        assertEquals(2999, java.getRss());
+        assertEquals(19990, java.getCpuTimeMillis());
+        assertEquals("0:19", java.getCpuTime());
+        assertEquals(1700000000000L + 5000000L, java.getStartTimeMillis());
+        assertEquals("/system.slice/app.service", java.getCgroup());
+    }
+
+    @Test
+    public void truncatesPercentagesLikePs() throws Exception {
+        ProcessInfo java = collect().get(1);
+        // 19.99s of cpu over 5000s is 0.39%, 2999KB of 1000000KB is 0.29%: ps shows 0.3 and 0.2
+        assertEquals(0.3f, java.getCpuPercentage(), 0f);
+        assertEquals(0.2f, java.getMemPercentage(), 0f);
+    }
+
+    @Test
+    public void readsKernelThread() throws Exception {
+        ProcessInfo kthreadd = collect().get(0);
+        assertEquals(2, kthreadd.getPid());
+        assertEquals("root", kthreadd.getUser());
+        assertEquals("[kthreadd]", kthreadd.getCommand());
+        assertEquals("?", kthreadd.getTty());
+        assertEquals("S", kthreadd.getStat());
+        assertEquals(0, kthreadd.getRss());
+        assertEquals("/", kthreadd.getCgroup());
+    }
+
+    @Test
+    public void clampsHugeVsz() throws Exception {
+        ProcessInfo zgc = collect().get(2);
+        assertEquals(5000, zgc.getPid());
+        assertEquals(Integer.MAX_VALUE, zgc.getVsz());
+        assertEquals(2999, zgc.getRss());
+        // the selection sees the clamped value too
+        List<ProcessInfo> top = new ProcProcessCollector(fixture("root"), fixture("passwd"))
+                .collect(new ProcessSelection(new ProcessQuery().top(1, ProcessQuery.Order.VSZ)));
+        assertEquals(1, top.size());
+        assertEquals(Integer.MAX_VALUE, top.get(0).getVsz());
+    }
+}
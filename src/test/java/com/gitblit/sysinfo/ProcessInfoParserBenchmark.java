@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the time and the allocations of {@link ProcessInfoParser} with the former Scanner based parsing,
+ * on a synthetic "ps wauxf" output of {@value #ROWS} processes.
+ * <p>
+ * Run with the test classpath: <code>java -cp target/classes:target/test-classes
+ * com.gitblit.sysinfo.ProcessInfoParserBenchmark</code>. The fixture is regenerated, with the same seed, by
+ * passing <code>--generate src/test/resources/com/gitblit/sysinfo/ps/ps-wauxf-10k.txt.gz</code>.
+ */
+public final class ProcessInfoParserBenchmark {
+    static final int ROWS = 10000;
+    static final String FIXTURE = "ps-wauxf-10k.txt.gz";
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 20;
+
+    private static final String[] USERS = {"root", "alice", "bob", "www-data", "postgres", "systemd+"};
+    private static final String[] TTYS = {"?", "?", "?", "pts/0", "pts/1", "tty1"};
+    private static final String[] STATS = {"S", "Ss", "Sl", "Ssl", "R+", "S<", "I<", "D", "Z"};
+    private static final String[] STARTS = {"Oct12", "09:14", "13:02", "2025", "Sep30"};
+    private static final String[] COMMANDS = {"[kworker/0:1-events]", "/usr/sbin/sshd -D",
+        "java -Xmx1g -Dfile.encoding=UTF-8 -jar /opt/gitblit/gitblit.jar --baseFolder /var/gitblit",
+        "postgres: 14/main: checkpointer", "/usr/lib/systemd/systemd-journald", "-bash",
+        "nginx: worker process", "/usr/bin/python3 /usr/bin/networkd-dispatcher --run-startup-triggers"};
+
+    private ProcessInfoParserBenchmark() {
+        super();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && "--generate".equals(args[0])) {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(Paths.get(args[1])))) {
+                out.write(generate(ROWS, 42));
+            }
+            return;
+        }
+        byte[] output = read();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            ScannerProcessInfoParser.parse(new ByteArrayInputStream(output), false, false);
+            ProcessInfo.buildProcessInfoList(new ByteArrayInputStream(output), false, false, null);
+        }
+        long minNanos = Long.MAX_VALUE;
+        long maxNanos = 0;
+        long allocatedBytes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            ScannerProcessInfoParser.parse(new ByteArrayInputStream(output), false, false);
+            long nanos = System.nanoTime() - start;
+            allocatedBytes = bytes < 0 ? -1 : allocatedBytes + allocatedBytes() - bytes;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+        print("Scanner", minNanos, maxNanos, allocatedBytes);
+        minNanos = Long.MAX_VALUE;
+        maxNanos = 0;
+        allocatedBytes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            ProcessInfo.buildProcessInfoList(new ByteArrayInputStream(output), false, false, null);
+            long nanos = System.nanoTime() - start;
+            allocatedBytes = bytes < 0 ? -1 : allocatedBytes + allocatedBytes() - bytes;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+        print("ProcessInfoParser", minNanos, maxNanos, allocatedBytes);
+    }
+
+    private static void print(String parser, long minNanos, long maxNanos, long allocatedBytes) {
+        String allocated = allocatedBytes < 0 ? "unknown"
+                : String.format(Locale.US, "%.1f MB", allocatedBytes / (double) ITERATIONS / 1000000);
+        System.out.println(String.format(Locale.US, "%-18s %d rows: %.1f-%.1f ms, %s allocated per parse",
+                parser, ROWS, minNanos / 1000000d, maxNanos / 1000000d, allocated));
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, or a negative value when unknown
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            // getCurrentThreadAllocatedBytes() is java 14+
+            return ((com.sun.management.ThreadMXBean) threadMXBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static byte[] read() throws IOException {
+        InputStream resource = ProcessInfoParserBenchmark.class.getResourceAsStream("ps/" + FIXTURE);
+        try (InputStream in = new GZIPInputStream(resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read = in.read(buffer);
+            while (read >= 0) {
+                out.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * @return a "ps wauxf" output with random but plausible values, the same for the same seed
+     */
+    static byte[] generate(int rows, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(rows * 160);
+        sb.append("USER         PID %CPU %MEM    VSZ   RSS TTY      STAT START   TIME COMMAND\n");
+        int depth = 0;
+        for (int i = 0; i < rows; i++) {
+            sb.append(String.format(Locale.US, "%-8s %7d %4.1f %4.1f %6d %5d %-8s %-4s %-5s %6s ",
+                    USERS[random.nextInt(USERS.length)], i + 1, random.nextInt(1000) / 10f,
+                    random.nextInt(200) / 10f, random.nextInt(4000000), random.nextInt(800000),
+                    TTYS[random.nextInt(TTYS.length)], STATS[random.nextInt(STATS.length)],
+                    STARTS[random.nextInt(STARTS.length)],
+                    random.nextInt(300) + ":" + String.format(Locale.US, "%02d", random.nextInt(60))));
+            depth = random.nextInt(4) == 0 ? 0 : Math.min(depth + random.nextInt(2), 4);
+            for (int j = 0; j < depth; j++) {
+                sb.append("    ");
+            }
+            if (depth > 0) {
+                sb.append("\\_ ");
+            }
+            sb.append(COMMANDS[random.nextInt(COMMANDS.length)]).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
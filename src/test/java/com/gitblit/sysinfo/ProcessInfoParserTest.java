@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * Parses captured outputs of ps and tasklist, checking each field against the former Scanner based parsing.
+ */
+public class ProcessInfoParserTest {
+
+    private static InputStream open(String name) throws IOException {
+        InputStream in = ProcessInfoParserTest.class.getResourceAsStream("ps/" + name);
+        return name.endsWith(".gz") ? new GZIPInputStream(in) : in;
+    }
+
+    private static List<ProcessInfo> parse(String name, boolean windows, boolean macOrAix) throws IOException {
+        List<ProcessInfo> expected;
+        try (InputStream in = open(name)) {
+            expected = ScannerProcessInfoParser.parse(in, windows, macOrAix);
+        }
+        List<ProcessInfo> actual;
+        try (InputStream in = open(name)) {
+            actual = ProcessInfo.buildProcessInfoList(in, windows, macOrAix, null);
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameFields(expected.get(i), actual.get(i));
+        }
+        return actual;
+    }
+
+    private static void assertSameFields(ProcessInfo expected, ProcessInfo actual) {
+        assertEquals(expected.getUser(), actual.getUser());
+        assertEquals(expected.getPid(), actual.getPid());
+        assertEquals(expected.getCpuPercentage(), actual.getCpuPercentage(), 0f);
+        assertEquals(expected.getMemPercentage(), actual.getMemPercentage(), 0f);
+        assertEquals(expected.getVsz(), actual.getVsz());
+        assertEquals(expected.getRss(), actual.getRss());
+        assertEquals(expected.getTty(), actual.getTty());
+        assertEquals(expected.getStat(), actual.getStat());
+        assertEquals(expected.getStart(), actual.getStart());
+        assertEquals(expected.getCpuTime(), actual.getCpuTime());
+        assertEquals(expected.getCommand(), actual.getCommand());
+    }
+
+    @Test
+    public void parsesLinuxTree() throws IOException {
+        List<ProcessInfo> processInfos = parse("ps-wauxf.txt", false, false);
+        assertEquals(4, processInfos.size());
+        ProcessInfo java = processInfos.get(2);
+        assertEquals("alice", java.getUser());
+        assertEquals(4711, java.getPid());
+        assertEquals(12.5f, java.getCpuPercentage(), 0f);
+        assertEquals(3.2f, java.getMemPercentage(), 0f);
+        assertEquals(3145728, java.getVsz());
+        assertEquals(263104, java.getRss());
+        assertEquals("pts/0", java.getTty());
+        assertEquals("Sl+", java.getStat());
+        assertEquals("09:14", java.getStart());
+        assertEquals(723000, java.getCpuTimeMillis());
+        // the leading spaces draw the tree
+        assertEquals("  \\_ java -Xmx1g -jar gitblit.jar", java.getCommand());
+        assertEquals(93784000, processInfos.get(3).getCpuTimeMillis());
+    }
+
+    @Test
+    public void parsesCrLf() throws IOException {
+        List<ProcessInfo> processInfos = parse("ps-waux-crlf.txt", false, false);
+        assertEquals(1, processInfos.size());
+        assertEquals(" /sbin/init", processInfos.get(0).getCommand());
+    }
+
+    @Test
+    public void parsesMacStart() throws IOException {
+        List<ProcessInfo> processInfos = parse("ps-waux-mac.txt", false, true);
+        assertEquals("12 Oct24", processInfos.get(0).getStart());
+        assertEquals("9:14AM", processInfos.get(1).getStart());
+        assertEquals(1500, processInfos.get(1).getCpuTimeMillis());
+    }
+
+    @Test
+    public void parsesTasklist() throws IOException {
+        List<ProcessInfo> processInfos = parse("tasklist.txt", true, false);
+        assertEquals(3, processInfos.size());
+        assertEquals("NT AUTHORITY\\SYSTEM", processInfos.get(0).getUser());
+        ProcessInfo java = processInfos.get(1);
+        assertEquals(4711, java.getPid());
+        assertEquals(263104, java.getVsz());
+        assertEquals("GITBLIT\\Renée", java.getUser());
+        assertEquals("java.exe   (Gitblit GO)", java.getCommand());
+        // without session name
+        ProcessInfo svchost = processInfos.get(2);
+        assertEquals(12345, svchost.getVsz());
+        assertEquals("NT AUTHORITY\\NETWORK SERVICE", svchost.getUser());
+        assertEquals("System Idle Process   (N/A)", processInfos.get(0).getCommand());
+    }
+
+    @Test
+    public void parsesBenchmarkFixture() throws IOException {
+        assertEquals(ProcessInfoParserBenchmark.ROWS,
+                parse(ProcessInfoParserBenchmark.FIXTURE, false, false).size());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+/**
+ * The java.util.Scanner based parsing which {@link ProcessInfoParser} replaced, kept as the reference of
+ * its results and as the baseline of {@link ProcessInfoParserBenchmark}.
+ */
+final class ScannerProcessInfoParser {
+    private static final Pattern WINDOWS_STATE_PATTERN = Pattern.compile("................");
+    private static final Pattern WINDOWS_CPU_TIME_PATTERN = Pattern.compile("[0-9:]*");
+
+    private ScannerProcessInfoParser() {
+        super();
+    }
+
+    static List<ProcessInfo> parse(InputStream in, boolean windows, boolean macOrAix) {
+        Scanner sc = new Scanner(in, windows ? "Cp1252" : "UTF-8");
+        sc.useRadix(10);
+        sc.useLocale(Locale.US);
+        sc.nextLine();
+        if (windows) {
+            sc.nextLine();
+            sc.nextLine();
+        }
+        List<ProcessInfo> processInfos = new ArrayList<>();
+        while (sc.hasNext()) {
+            processInfos.add(windows ? parseWindows(sc) : parseUnix(sc, macOrAix));
+        }
+        return processInfos;
+    }
+
+    private static ProcessInfo parseWindows(Scanner sc) {
+        StringBuilder imageNameBuilder = new StringBuilder(sc.next());
+        while (!sc.hasNextInt()) {
+            imageNameBuilder.append(' ').append(sc.next());
+        }
+        int pid = sc.nextInt();
+        if ("Console".equals(sc.next())) {
+            sc.next();
+        }
+        String memory = sc.next();
+        int vsz = Integer.parseInt(memory.replace(".", "").replace(",", "").replace("ÿ", ""));
+        sc.next();
+        sc.skip(WINDOWS_STATE_PATTERN);
+        StringBuilder userBuilder = new StringBuilder(sc.next());
+        while (!sc.hasNext(WINDOWS_CPU_TIME_PATTERN)) {
+            userBuilder.append(' ').append(sc.next());
+        }
+        String user = userBuilder.toString();
+        String cpuTime = sc.next();
+        String command = imageNameBuilder.append("   (").append(sc.nextLine().trim()).append(')').toString();
+        return new ProcessInfo(user, pid, -1, -1, vsz, -1, null, null, null, cpuTime, command);
+    }
+
+    private static ProcessInfo parseUnix(Scanner sc, boolean macOrAix) {
+        String user = sc.next();
+        int pid = sc.nextInt();
+        float cpuPercentage = Float.parseFloat(sc.next().replace(",", "."));
+        float memPercentage = Float.parseFloat(sc.next().replace(",", "."));
+        int vsz = sc.nextInt();
+        int rss = sc.nextInt();
+        String tty = sc.next();
+        String stat = sc.next();
+        String start;
+        if (macOrAix && sc.hasNextInt()) {
+            start = sc.next() + ' ' + sc.next();
+        } else {
+            start = sc.next();
+        }
+        String cpuTime = sc.next();
+        String command = sc.nextLine();
+        return new ProcessInfo(user, pid, cpuPercentage, memPercentage, vsz, rss, tty, stat, start, cpuTime,
+                command);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.sysinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Summarizes a handwritten JSON thread dump in the format of java 21: an executor with virtual threads,
+ * two of them mounted on the carriers of a ForkJoinPool, and one without the "virtual" field.
+ */
+public class VirtualThreadCollectorTest {
+    private static final long[] PLATFORM_IDS = {1, 9, 30, 36};
+
+    private static VirtualThreadSummary parse(int maxStacks) throws IOException {
+        try (Reader reader = new InputStreamReader(
+                VirtualThreadCollectorTest.class.getResourceAsStream("threads/virtual-threads.json"),
+                StandardCharsets.UTF_8)) {
+            return VirtualThreadCollector.parse(reader, PLATFORM_IDS, maxStacks);
+        }
+    }
+
+    @Test
+    public void countsThreadsByContainerAndCarrier() throws IOException {
+        VirtualThreadSummary summary = parse(100);
+        // tid 34 has no "virtual" field, it is virtual because it is not a platform thread
+        assertEquals(5, summary.getVirtualThreadCount());
+        assertEquals(4, summary.getPlatformThreadCount());
+        List<VirtualThreadSummary.Container> containers = summary.getContainers();
+        assertEquals(3, containers.size());
+        assertEquals("java.util.concurrent.ThreadPerTaskExecutor@5b6f7412", containers.get(0).getName());
+        assertEquals("<root>", containers.get(0).getParent());
+        assertEquals(5, containers.get(0).getVirtualThreadCount());
+        assertEquals(0, containers.get(0).getPlatformThreadCount());
+        assertEquals("<root>", containers.get(1).getName());
+        assertEquals(2, containers.get(1).getPlatformThreadCount());
+        Map<Long, Long> carriers = new HashMap<>();
+        carriers.put(30L, 1L);
+        carriers.put(36L, 1L);
+        assertEquals(carriers, summary.getMountedVirtualThreadsByCarrier());
+    }
+
+    @Test
+    public void deduplicatesStacks() throws IOException {
+        VirtualThreadSummary summary = parse(100);
+        List<VirtualThreadSummary.Stack> stacks = summary.getStacks();
+        assertEquals(6, stacks.size());
+        VirtualThreadSummary.Stack read = stacks.get(0);
+        assertEquals(3, read.getThreadCount());
+        assertEquals(3, read.getVirtualThreadCount());
+        assertEquals(Arrays.asList("java.base/java.lang.VirtualThread.park(VirtualThread.java:582)",
+                "java.base/java.util.concurrent.locks.LockSupport.park(LockSupport.java:369)",
+                "com.example.Handler.read(Handler.java:27)"), read.getFrames());
+        assertEquals("", read.getSampleThreadName());
+        VirtualThreadSummary.Stack carrier = stacks.get(1);
+        assertEquals(2, carrier.getThreadCount());
+        assertEquals(0, carrier.getVirtualThreadCount());
+        assertEquals("ForkJoinPool-1-worker-1", carrier.getSampleThreadName());
+        assertEquals(0, summary.getUntrackedStackThreadCount());
+    }
+
+    @Test
+    public void boundsDistinctStacks() throws IOException {
+        VirtualThreadSummary summary = parse(2);
+        // main and Reference Handler are tracked, the 7 threads of the other containers are only counted
+        assertEquals(2, summary.getStacks().size());
+        assertEquals(7, summary.getUntrackedStackThreadCount());
+        assertEquals(5, summary.getVirtualThreadCount());
+    }
+}